@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("com.github.ben-manes.versions") version "0.51.0"
+    id("me.champeau.jmh") version "0.7.2"
     application
 }
 
@@ -20,8 +21,10 @@ val mongoCryptVersion= "1.11.0"
 dependencies {
     implementation("info.picocli:picocli:4.7.6")
     implementation("org.mongodb:mongodb-driver-sync:$mongoVersion")
+    implementation("org.mongodb:mongodb-driver-reactivestreams:$mongoVersion")
     implementation("org.mongodb:mongodb-crypt:$mongoCryptVersion")
     implementation("org.slf4j:slf4j-api:2.0.13")
+    implementation("org.hdrhistogram:HdrHistogram:2.2.2")
     implementation(platform("org.apache.logging.log4j:log4j-bom:$log4Version"))
     implementation("org.apache.logging.log4j:log4j-core")
     implementation("org.apache.logging.log4j:log4j-api")
@@ -37,6 +40,165 @@ application {
     applicationDefaultJvmArgs = listOf("-ea")
 }
 
+// msv supports JDK 17, so compile against its API even when Gradle runs on a newer JDK
+tasks.withType<JavaCompile>().configureEach {
+    options.release.set(17)
+}
+
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// Class data sharing: a training run of the installed distribution records the classes loaded on the CLI startup
+// path, and a static dump of that class list produces lib/msv.jsa, which the start script passes to the JVM when
+// present. Classes are loaded fresh for the dump, so picocli and the driver are archived along with the JDK classes.
+// The archive is tied to the JDK and to the location of the installed jars, and -Xshare:auto makes the JVM ignore it
+// silently if either changes.
+val cdsArchiveName = "msv.jsa"
+
+// the start script runs $JAVA_HOME/bin/java, or java from the PATH, so the archive is dumped with the same JVM
+val launcherJava = System.getenv("JAVA_HOME")
+    ?.let { File(it, if (System.getProperty("os.name").lowercase().contains("windows")) "bin/java.exe" else "bin/java").path }
+    ?: "java"
+
+// the classpath must match the start script's exactly for the archive to be used
+fun installedClasspath(installDir: File, startScripts: CreateStartScripts) =
+    startScripts.classpath!!.files.joinToString(File.pathSeparator) { File(installDir, "lib/${it.name}").path }
+
+val cdsClassList by tasks.registering(Exec::class) {
+    description = "Records the classes loaded by a training run of the installed distribution"
+    group = "distribution"
+    dependsOn(tasks.installDist)
+
+    val installDir = tasks.installDist.get().destinationDir
+    val startScripts = tasks.startScripts.get()
+    val classList = File(temporaryDir, "msv.classlist")
+    inputs.files(startScripts.classpath)
+    outputs.file(classList)
+
+    workingDir = installDir
+    executable = launcherJava
+    doFirst {
+        args("-Xshare:off", "-XX:DumpLoadedClassList=${classList.path}",
+            "-cp", installedClasspath(installDir, startScripts), "uk.dioxic.mongo.secrets.CdsTraining")
+    }
+}
+
+val cdsArchive by tasks.registering(Exec::class) {
+    description = "Generates a class data sharing archive for the installed distribution from the training class list"
+    group = "distribution"
+    dependsOn(cdsClassList)
+
+    val installDir = tasks.installDist.get().destinationDir
+    val startScripts = tasks.startScripts.get()
+    val classList = cdsClassList.get().outputs.files.singleFile
+    inputs.file(classList)
+    outputs.file(File(installDir, "lib/$cdsArchiveName"))
+
+    workingDir = installDir
+    executable = launcherJava
+    doFirst {
+        // the JVM ignores the archive if a jar's modification time differs, and zip entries only keep it to 2 seconds
+        File(installDir, "lib").listFiles { file -> file.name.endsWith(".jar") }!!.forEach {
+            it.setLastModified(it.lastModified() / 2000 * 2000)
+        }
+        args("-Xshare:dump", "-XX:SharedClassListFile=${classList.path}", "-XX:SharedArchiveFile=lib/$cdsArchiveName",
+            "-cp", installedClasspath(installDir, startScripts))
+    }
+}
+
+tasks.installDist {
+    finalizedBy(cdsArchive)
+}
+
+// The distribution archives are packed from the installation, so they carry the archive and the exact jars it was
+// dumped against. It is used where they are unpacked as long as the same JDK runs them.
+listOf(tasks.distZip, tasks.distTar).forEach { archive ->
+    archive.configure {
+        val installDir = tasks.installDist.get().destinationDir
+        dependsOn(cdsArchive)
+        from(installDir) {
+            into("${distributions.main.get().distributionBaseName.get()}-${project.version}")
+        }
+        eachFile {
+            if (!file.startsWith(installDir)) {
+                exclude()
+            }
+        }
+    }
+}
+
+tasks.startScripts {
+    doLast {
+        val unixText = unixScript.readText()
+        check(unixText.contains("\nCLASSPATH=") && unixText.contains("\"\$DEFAULT_JVM_OPTS \$JAVA_OPTS")) {
+            "Unexpected start script template - cannot add class data sharing options"
+        }
+        unixScript.writeText(unixText
+            .replaceFirst("\nCLASSPATH=", "\n" + """
+                |# Use the class data sharing archive if one was generated for this installation
+                |if [ -f "${'$'}APP_HOME/lib/$cdsArchiveName" ]; then
+                |    MSV_CDS_OPTS="\"-XX:SharedArchiveFile=${'$'}APP_HOME/lib/$cdsArchiveName\" -Xshare:auto"
+                |fi
+                |
+                |CLASSPATH=""".trimMargin())
+            .replace("\"\$DEFAULT_JVM_OPTS \$JAVA_OPTS", "\"\$DEFAULT_JVM_OPTS \$MSV_CDS_OPTS \$JAVA_OPTS"))
+
+        val windowsText = windowsScript.readText()
+        if (windowsText.contains("%DEFAULT_JVM_OPTS% %JAVA_OPTS%")) {
+            windowsScript.writeText(windowsText
+                .replaceFirst("\r\nset CLASSPATH=",
+                    "\r\nif exist \"%APP_HOME%\\lib\\$cdsArchiveName\" set MSV_CDS_OPTS=\"-XX:SharedArchiveFile=%APP_HOME%\\lib\\$cdsArchiveName\" -Xshare:auto\r\n\r\nset CLASSPATH=")
+                .replace("%DEFAULT_JVM_OPTS% %JAVA_OPTS%", "%DEFAULT_JVM_OPTS% %MSV_CDS_OPTS% %JAVA_OPTS%"))
+        }
+    }
+}
+
+// opt-in rather than part of check, as a wall-clock budget is unreliable on slow or shared machines
+val measureStartup by tasks.registering {
+    description = "Measures CLI startup time with and without the class data sharing archive. " +
+            "Fails if startup with the archive exceeds -PstartupBudgetMs (default 1500)."
+    group = "verification"
+    dependsOn(cdsArchive)
+    onlyIf { !System.getProperty("os.name").lowercase().contains("windows") }
+
+    val script = File(tasks.installDist.get().destinationDir, "bin/${application.applicationName}")
+    val budgetMs = (findProperty("startupBudgetMs") ?: "1500").toString().toLong()
+    val runs = 5
+
+    doLast {
+        fun medianStartupMs(javaOpts: String): Long {
+            val times = (1..runs).map {
+                val process = ProcessBuilder(script.path, "read", "--help")
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .apply { environment()["JAVA_OPTS"] = javaOpts }
+                val start = System.nanoTime()
+                check(process.start().waitFor() == 0) { "msv read --help failed" }
+                (System.nanoTime() - start) / 1_000_000
+            }
+            return times.sorted()[runs / 2]
+        }
+
+        val withCds = medianStartupMs("")
+        val withoutCds = medianStartupMs("-Xshare:off")
+        logger.lifecycle("msv read --help startup (median of $runs): ${withCds}ms with CDS, ${withoutCds}ms without")
+        check(withCds <= budgetMs) { "Startup took ${withCds}ms, over the ${budgetMs}ms budget" }
+    }
+}
+
+jmh {
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    // report allocation rate alongside throughput and latency percentiles
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    findProperty("jmhIncludes")?.let { includes.add(it.toString()) }
+    findProperty("jmhUri")?.let {
+        benchmarkParameters.put("uri", objects.listProperty(String::class.java).value(listOf(it.toString())))
+    }
+    findProperty("jmhDatasetSize")?.let {
+        benchmarkParameters.put("datasetSize", objects.listProperty(String::class.java).value(listOf(it.toString())))
+    }
+}
@@ -0,0 +1,145 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.client.model.vault.EncryptOptions;
+import org.bson.types.Binary;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the SecretService hot paths against a local mongod.
+ * <p>
+ * The benchmark initializes the vaults, so it must never be pointed at a deployment holding real secrets.
+ * Run with {@code ./gradlew jmh}; the dataset size and connection string can be overridden with
+ * {@code -PjmhDatasetSize=} and {@code -PjmhUri=}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SecretServiceBenchmark {
+
+    @Param({"mongodb://localhost:27017/msv_bench"})
+    private String uri;
+
+    @Param({"AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic", "AEAD_AES_256_CBC_HMAC_SHA_512-Random"})
+    private String algorithm;
+
+    @Param({"10000"})
+    private int datasetSize;
+
+    @Param({"100"})
+    private int bulkSize;
+
+    @Param({"64"})
+    private int secretLength;
+
+    private SecretService secretService;
+    private List<String> secretIds;
+    private String secret;
+    private Binary cipherText;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        secretService = new SecretService(uri, "passwordBLUE", "passwordGREEN");
+        secretService.initialize(Color.GREEN);
+        secretService.warmUp();
+
+        secret = randomSecret(secretLength);
+        secretIds = new ArrayList<>(datasetSize);
+        var batch = new HashMap<String, String>();
+        for (int i = 0; i < datasetSize; i++) {
+            var secretId = "secret" + i;
+            secretIds.add(secretId);
+            batch.put(secretId, randomSecret(secretLength));
+            if (batch.size() == SecretService.DEFAULT_BATCH_SIZE) {
+                secretService.writeAll(batch, algorithm);
+                batch.clear();
+            }
+        }
+        secretService.writeAll(batch, algorithm);
+
+        var encrypted = secretService.encrypt(secret, Color.GREEN, new EncryptOptions(algorithm));
+        cipherText = new Binary(encrypted.getType(), encrypted.getData());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        secretService.close();
+    }
+
+    @Benchmark
+    public Object encrypt() {
+        return secretService.encrypt(secret, Color.GREEN, new EncryptOptions(algorithm));
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return secretService.decrypt(cipherText, Color.GREEN);
+    }
+
+    @Benchmark
+    public String read() {
+        return secretService.read(randomSecretId());
+    }
+
+    @Benchmark
+    public byte[] readBytes() {
+        var secret = secretService.readBytes(randomSecretId());
+        Arrays.fill(secret, (byte) 0);
+        return secret;
+    }
+
+    @Benchmark
+    public Map<String, String> readMany() {
+        var ids = new ArrayList<String>(bulkSize);
+        for (int i = 0; i < bulkSize; i++) {
+            ids.add(randomSecretId());
+        }
+        return secretService.readMany(ids);
+    }
+
+    @Benchmark
+    public void write() {
+        secretService.write(randomSecretId(), secret, algorithm);
+    }
+
+    @Benchmark
+    public void writeAll() {
+        var secrets = new HashMap<String, String>();
+        for (int i = 0; i < bulkSize; i++) {
+            secrets.put(randomSecretId(), secret);
+        }
+        secretService.writeAll(secrets, algorithm);
+    }
+
+    /**
+     * Rotates the whole dataset into the inactive color, reporting the time per rotation
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long rotate() {
+        return secretService.rotate(SecretService.transformKey("passwordBLUE"), algorithm);
+    }
+
+    private String randomSecretId() {
+        return secretIds.get(ThreadLocalRandom.current().nextInt(secretIds.size()));
+    }
+
+    private static String randomSecret(int length) {
+        var random = ThreadLocalRandom.current();
+        var sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
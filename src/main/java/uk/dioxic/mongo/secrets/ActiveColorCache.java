@@ -0,0 +1,121 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.Document;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the active Color held in the metadata collection.
+ * <p>
+ * When the deployment supports change streams the cache is kept up to date by a background watcher,
+ * otherwise the active Color is re-read once it is older than the configured max staleness.
+ */
+class ActiveColorCache implements AutoCloseable {
+
+    static final String METADATA_ID = "SecretService";
+
+    private final MongoCollection<Document> metadataCollection;
+    private final long maxStalenessNanos;
+    private final Thread watcher;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Color active;
+    private volatile long refreshedAt;
+    private volatile boolean streaming;
+    private volatile boolean closed;
+
+    ActiveColorCache(MongoCollection<Document> metadataCollection, Duration maxStaleness, boolean changeStream) {
+        this.metadataCollection = metadataCollection;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+
+        if (changeStream && maxStalenessNanos > 0) {
+            watcher = new Thread(this::watch, "msv-active-color-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } else {
+            watcher = null;
+        }
+    }
+
+    /**
+     * Gets the active Color, reading it from the metadata collection if the cached value is missing or stale
+     *
+     * @return active Color
+     */
+    Color get() {
+        var color = active;
+        if (color == null || (!streaming && System.nanoTime() - refreshedAt >= maxStalenessNanos)) {
+            color = refresh();
+        }
+        return color;
+    }
+
+    /**
+     * Updates the cached active Color following a local change
+     *
+     * @param color the active Color
+     */
+    void set(Color color) {
+        generation.incrementAndGet();
+        refreshedAt = System.nanoTime();
+        active = color;
+    }
+
+    private Color refresh() {
+        // a change seen while the query is in flight is newer than the query result, so only cache if there was none
+        var expectedGeneration = generation.get();
+        var meta = metadataCollection
+                .find(Filters.eq(METADATA_ID))
+                .first();
+        assert meta != null : "No metadata found with _id=" + METADATA_ID;
+        assert meta.containsKey("active") : "No metadata found for active color";
+        var color = Color.valueOf(meta.getString("active"));
+        if (generation.compareAndSet(expectedGeneration, expectedGeneration + 1)) {
+            refreshedAt = System.nanoTime();
+            active = color;
+        }
+        return color;
+    }
+
+    private void watch() {
+        var pipeline = List.of(Aggregates.match(Filters.eq("documentKey._id", METADATA_ID)));
+        try (var cursor = metadataCollection.watch(pipeline).fullDocument(FullDocument.UPDATE_LOOKUP).cursor()) {
+            streaming = true;
+            // the stream is open so any change from here on is seen - clear the cache to pick up earlier changes
+            generation.incrementAndGet();
+            active = null;
+            while (!closed) {
+                var event = cursor.tryNext();
+                if (event == null) {
+                    continue;
+                }
+                var meta = event.getFullDocument();
+                if (event.getOperationType() == OperationType.DELETE || meta == null || !meta.containsKey("active")) {
+                    generation.incrementAndGet();
+                    active = null;
+                } else {
+                    set(Color.valueOf(meta.getString("active")));
+                }
+            }
+        } catch (MongoException | IllegalStateException e) {
+            // change streams are not supported (e.g. standalone server) or the stream failed - fall back to polling
+        } finally {
+            streaming = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+}
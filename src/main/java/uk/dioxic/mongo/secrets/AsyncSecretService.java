@@ -0,0 +1,293 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.vault.DataKeyOptions;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.vault.ClientEncryption;
+import com.mongodb.reactivestreams.client.vault.ClientEncryptions;
+import org.bson.BsonBinary;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.mongodb.client.model.Indexes.ascending;
+import static uk.dioxic.mongo.secrets.Publishers.complete;
+import static uk.dioxic.mongo.secrets.Publishers.first;
+import static uk.dioxic.mongo.secrets.SecretService.*;
+
+/**
+ * A non-blocking secret service built on the MongoDB reactive streams driver.
+ * <p>
+ * Stores secrets in the same collections and key vaults as {@link SecretService} so the two can be used
+ * interchangeably against the same deployment.
+ */
+public class AsyncSecretService implements IAsyncSecretService, AutoCloseable {
+
+    private final MongoClient client;
+    private final MongoClientSettings mongoClientSettings;
+    private final Map<Color, ClientEncryption> vaultMap;
+    private final Map<Color, byte[]> masterKeyMap;
+    private final MongoDatabase database;
+    private final String connectionString;
+    private final String blueKey;
+    private final String greenKey;
+    private final ExecutorService rotationExecutor;
+    private SecretService rotator;
+
+    public AsyncSecretService(String connectionString, String blueKey, String greenKey) {
+        // connect to MongoDB
+        var cs = new ConnectionString(connectionString);
+        mongoClientSettings = MongoClientSettings.builder()
+                .applyConnectionString(cs)
+                .build();
+        client = MongoClients.create(mongoClientSettings);
+        this.database = client.getDatabase(Objects.requireNonNullElse(cs.getDatabase(), "secrets"));
+
+        // populate the master key map
+        this.masterKeyMap = new ConcurrentHashMap<>() {{
+            put(Color.GREEN, transformKey(greenKey));
+            put(Color.BLUE, transformKey(blueKey));
+        }};
+
+        // populate the vault map
+        this.vaultMap = new ConcurrentHashMap<>();
+        for (Color color : masterKeyMap.keySet()) {
+            vaultMap.put(color, createClientEncryption(color));
+        }
+
+        // rotations are run one at a time by a blocking SecretService
+        this.connectionString = connectionString;
+        this.blueKey = blueKey;
+        this.greenKey = greenKey;
+        this.rotationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "msv-async-rotate");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> write(String secretId, String secret) {
+        return write(secretId, secret, DEFAULT_ALGORITHM);
+    }
+
+    @Override
+    public CompletableFuture<Void> write(String secretId, String secret, String algorithm) {
+        var colors = Color.values();
+        var writes = new CompletableFuture<?>[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            writes[i] = write(secretId, secret, colors[i], new EncryptOptions(algorithm));
+        }
+        return CompletableFuture.allOf(writes);
+    }
+
+    public CompletableFuture<Void> write(String secretId, String secret, Color color, EncryptOptions encryptOptions) {
+        assert vaultMap.containsKey(color) : "No vault configured for color " + color.name();
+
+        return encrypt(new BsonString(secret), color, encryptOptions)
+                .thenCompose(cipherText -> first(getSecretsCollection(color).findOneAndUpdate(
+                        Filters.eq(secretId),
+                        Updates.combine(Updates.set("secret", cipherText), Updates.unset("chunked")),
+                        new FindOneAndUpdateOptions()
+                                .upsert(true)
+                                .projection(Projections.include("chunked.files_id"))
+                                .returnDocument(ReturnDocument.BEFORE)
+                )))
+                .thenCompose(previous -> deleteChunks(previous, color));
+    }
+
+    /**
+     * Removes the chunks of a secret that was chunked before it was overwritten
+     */
+    private CompletableFuture<Void> deleteChunks(Document previous, Color color) {
+        if (previous != null && previous.get("chunked") instanceof Document previousManifest) {
+            return complete(getChunksCollection(color).deleteMany(Filters.eq("files_id", previousManifest.get("files_id"))));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<BsonBinary> encrypt(BsonValue plainText, Color color, EncryptOptions encryptOptions) {
+        return first(vaultMap.get(color).encrypt(plainText, encryptOptions.keyAltName(DATA_KEY_ALT_NAME)));
+    }
+
+    private CompletableFuture<BsonValue> decrypt(Binary binary, Color color) {
+        assert vaultMap.containsKey(color) : "No vault configured for color " + color.name();
+        BsonBinary cipherText = new BsonBinary(binary.getType(), binary.getData());
+        return first(vaultMap.get(color).decrypt(cipherText));
+    }
+
+    private MongoCollection<Document> getSecretsCollection(Color color) {
+        return database.getCollection(color.name().toLowerCase() + SECRETS_COLLECTION_SUFFIX);
+    }
+
+    private MongoCollection<Document> getChunksCollection(Color color) {
+        return database.getCollection(color.name().toLowerCase() + CHUNKS_COLLECTION_SUFFIX);
+    }
+
+    @Override
+    public CompletableFuture<String> read(String secretId) {
+        return getActive().thenCompose(color -> read(secretId, color));
+    }
+
+    public CompletableFuture<String> read(String secretId, Color color) {
+        assert vaultMap.containsKey(color) : "No vault configured for color " + color;
+
+        return first(getSecretsCollection(color).find(Filters.eq("_id", secretId)).first())
+                .thenCompose(document -> {
+                    if (document == null) {
+                        return CompletableFuture.<BsonValue>failedFuture(new NoSuchElementException("No secret found for id: " + secretId));
+                    }
+                    if (!document.containsKey("secret") && document.containsKey("chunked")) {
+                        return CompletableFuture.<BsonValue>failedFuture(new IllegalStateException(
+                                "Secret " + secretId + " is chunked - use SecretService.readChunked"));
+                    }
+                    return decrypt(document.get("secret", Binary.class), color);
+                })
+                .thenApply(SecretService::toSecretString);
+    }
+
+    @Override
+    public CompletableFuture<Color> getActive() {
+        return first(getMetadataCollection()
+                .find(Filters.eq(ActiveColorCache.METADATA_ID))
+                .first())
+                .thenApply(meta -> {
+                    if (meta == null || !meta.containsKey("active")) {
+                        throw new IllegalStateException("No metadata found for active color");
+                    }
+                    return Color.valueOf(meta.getString("active"));
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> activate(Color color) {
+        return complete(getMetadataCollection()
+                .updateOne(
+                        Filters.eq(ActiveColorCache.METADATA_ID),
+                        Updates.set("active", color.name()),
+                        new UpdateOptions().upsert(true)
+                ));
+    }
+
+    /**
+     * The metadata collection is read from the primary with majority read and write concern, as it is by
+     * {@link SecretService}, so both services agree on the active color
+     */
+    private MongoCollection<Document> getMetadataCollection() {
+        return client.getDatabase(VAULT_DB)
+                .getCollection(METADATA_COLLECTION)
+                .withReadPreference(ReadPreference.primary())
+                .withReadConcern(ReadConcern.MAJORITY)
+                .withWriteConcern(WriteConcern.MAJORITY);
+    }
+
+    /**
+     * Rotates the inactive color with {@link SecretService#rotate(byte[], String)} on a background thread, so the
+     * rotation is staged, checkpointed and replays concurrent writes as it does there. The vault of the inactive
+     * color is re-created with the new master key once the rotation completes.
+     */
+    @Override
+    public CompletableFuture<Long> rotate(byte[] masterKey, String algorithm) {
+        return CompletableFuture.supplyAsync(() -> {
+            var secretService = getRotator();
+            var count = secretService.rotate(masterKey, algorithm);
+
+            // the inactive color is now encrypted with the new master key
+            var inactiveColor = secretService.getActive().flip();
+            masterKeyMap.put(inactiveColor, masterKey);
+            var previous = vaultMap.put(inactiveColor, createClientEncryption(inactiveColor));
+            if (previous != null) {
+                previous.close();
+            }
+            return count;
+        }, rotationExecutor);
+    }
+
+    /**
+     * The service rotations are delegated to, connected on first use
+     */
+    private synchronized SecretService getRotator() {
+        if (rotator == null) {
+            rotator = new SecretService(connectionString, blueKey, greenKey);
+        }
+        return rotator;
+    }
+
+    @Override
+    public CompletableFuture<Void> initialize(Color activeVault) {
+        CompletableFuture<Void> initialized = CompletableFuture.completedFuture(null);
+        for (Color color : Color.values()) {
+            initialized = initialized
+                    .thenCompose(v -> initializeKeyVault(color))
+                    .thenCompose(v -> complete(getSecretsCollection(color).drop()))
+                    .thenCompose(v -> complete(getChunksCollection(color).drop()));
+        }
+        return initialized.thenCompose(v -> activate(activeVault));
+    }
+
+    private ClientEncryption createClientEncryption(Color color) {
+        assert masterKeyMap.containsKey(color) : "No master key found for color " + color.name();
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(mongoClientSettings)
+                .keyVaultNamespace(getKeyVaultNamespace(color))
+                .kmsProviders(getKmsProviders(masterKeyMap.get(color)))
+                .build();
+        return ClientEncryptions.create(clientEncryptionSettings);
+    }
+
+    private CompletableFuture<Void> initializeKeyVault(Color color) {
+        assert vaultMap.containsKey(color) : color + " not found in vault map";
+
+        MongoCollection<Document> keyVaultCollection = client
+                .getDatabase(VAULT_DB)
+                .getCollection(color.name().toLowerCase() + VAULT_COLLECTION_SUFFIX);
+
+        IndexOptions indexOpts = new IndexOptions()
+                .partialFilterExpression(new Document("keyAltNames", new Document("$exists", true)))
+                .unique(true);
+
+        DataKeyOptions dataKeyOptions = new DataKeyOptions().keyAltNames(List.of(DATA_KEY_ALT_NAME));
+
+        return complete(keyVaultCollection.drop())
+                .thenCompose(v -> complete(keyVaultCollection.createIndex(ascending("keyAltNames"), indexOpts)))
+                .thenCompose(v -> complete(vaultMap.get(color).createDataKey("local", dataKeyOptions)));
+    }
+
+    @Override
+    public void close() {
+        rotationExecutor.shutdownNow();
+        synchronized (this) {
+            if (rotator != null) {
+                rotator.close();
+            }
+        }
+        vaultMap.values().forEach(ClientEncryption::close);
+        client.close();
+    }
+}
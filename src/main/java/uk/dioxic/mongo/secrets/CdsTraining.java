@@ -0,0 +1,53 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.Document;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Training run for the class data sharing archive shipped with the distribution.
+ * <p>
+ * Loads the classes on the CLI startup path - picocli and every subcommand, the driver, BSON codecs,
+ * libmongocrypt and logging - without needing a running mongod. Each subcommand's help is rendered and typical
+ * command lines are parsed, so option conversion and default values are covered as well as usage help.
+ */
+class CdsTraining {
+
+    public static void main(String... args) {
+        var commandLine = new CommandLine(new Cli());
+        var nullWriter = new PrintWriter(Writer.nullWriter());
+        commandLine.setOut(nullWriter);
+        commandLine.setErr(nullWriter);
+        commandLine.execute("--help");
+        for (String subcommand : commandLine.getSubcommands().keySet()) {
+            commandLine.execute(subcommand, "--help");
+        }
+        new CommandLine(new Cli()).parseArgs("read", "--uri", "mongodb://localhost:27017", "--no-daemon", "secret1", "secret2");
+        new CommandLine(new Cli()).parseArgs("write", "--secret-id", "secret1", "--blue-key", "passwordBLUE", "mySecret");
+
+        LoggerFactory.getLogger(CdsTraining.class).debug("CDS training run");
+        Document.parse("{\"id\": \"secret1\", \"secret\": \"mySecret\"}").toJson();
+
+        var settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString("mongodb://localhost:27017"))
+                .build();
+
+        // creating clients doesn't block on the server, monitoring happens in the background
+        try (var client = MongoClients.create(settings)) {
+            client.getDatabase("secrets").getCollection("blue" + SecretService.SECRETS_COLLECTION_SUFFIX);
+            ClientEncryptions.create(ClientEncryptionSettings.builder()
+                    .keyVaultMongoClientSettings(settings)
+                    .keyVaultNamespace(SecretService.getKeyVaultNamespace(Color.BLUE))
+                    .kmsProviders(SecretService.getKmsProviders(SecretService.transformKey("passwordBLUE")))
+                    .build()).close();
+        }
+    }
+}
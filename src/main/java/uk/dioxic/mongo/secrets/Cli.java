@@ -4,13 +4,23 @@ import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import uk.dioxic.mongo.secrets.commands.*;
 
-@Command(name = "msv", mixinStandardHelpOptions = true, version = "1.0", description = "MongoDB secrets CLI tool",
+// the help and version options are inherited so that every subcommand accepts --help
+@Command(name = "msv", mixinStandardHelpOptions = true, scope = CommandLine.ScopeType.INHERIT, version = "1.0",
+        description = "MongoDB secrets CLI tool",
         subcommands = {
                 ActivateCommand.class,
+                BatchCommand.class,
+                BenchCommand.class,
+                ExportCommand.class,
+                ImportCommand.class,
                 InitializeCommand.class,
                 InfoCommand.class,
                 ReadCommand.class,
                 RotateCommand.class,
+                ServeCommand.class,
+                ShellCommand.class,
+                SyncCommand.class,
+                VerifyCommand.class,
                 WriteCommand.class
         })
 class Cli {
@@ -0,0 +1,64 @@
+package uk.dioxic.mongo.secrets;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking variant of {@link ISecretService}
+ */
+public interface IAsyncSecretService {
+
+    /**
+     * Writes a new secret to all Colors
+     * @param secretId secret identifier
+     * @param secret   secret data
+     * @return a future that completes when the secret is written
+     */
+    CompletableFuture<Void> write(String secretId, String secret);
+
+    /**
+     * Writes a new secret to all Colors
+     * @param secretId  secret identifier
+     * @param secret    secret data
+     * @param algorithm encryption algorithm
+     * @return a future that completes when the secret is written
+     */
+    CompletableFuture<Void> write(String secretId, String secret, String algorithm);
+
+    /**
+     * Reads a secret for the active color
+     * @param secretId secret identifier
+     * @return a future of the secret data
+     */
+    CompletableFuture<String> read(String secretId);
+
+    /**
+     * Re-encrypts the data of the inactive color by reading data from the active color
+     * and encrypting it with a different key into the inactive color
+     * @param masterKey the master key for rotation
+     * @return a future of the number of secrets rotated
+     */
+    CompletableFuture<Long> rotate(byte[] masterKey, String algorithm);
+
+    /**
+     * Sets a Color as the active color.
+     * Other Colors will be made inactive.
+     * @param color the color to activate
+     * @return a future that completes when the color is activated
+     */
+    CompletableFuture<Void> activate(Color color);
+
+    /**
+     * Gets the active Color
+     * @return a future of the active Color
+     */
+    CompletableFuture<Color> getActive();
+
+    /**
+     * Creates key vaults for all Colors.
+     * If a key vault already exists it will be dropped.
+     *
+     * @param activeVault set the active vault
+     * @return a future that completes when the vaults are initialized
+     */
+    CompletableFuture<Void> initialize(Color activeVault);
+}
@@ -0,0 +1,84 @@
+package uk.dioxic.mongo.secrets;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reads, writes and activation of secrets - the operations that both a local {@link SecretService} and a running
+ * msv daemon can serve
+ */
+public interface ISecretStore {
+
+    /**
+     * Writes a new secret to all Colors
+     * @param secretId secret identifier
+     * @param secret   secret data
+     */
+    void write(String secretId, String secret);
+
+    /**
+     * Writes a new secret to all Colors
+     * @param secretId  secret identifier
+     * @param secret    secret data
+     * @param algorithm encryption algorithm
+     */
+    void write(String secretId, String secret, String algorithm);
+
+    /**
+     * Writes many secrets to all Colors
+     * @param secrets   secret data keyed by secret identifier
+     * @param algorithm encryption algorithm
+     */
+    void writeAll(Map<String, String> secrets, String algorithm);
+
+    /**
+     * Writes a new binary secret to all Colors.
+     * The buffer's remaining bytes are written and its position is not changed, so the caller may zero it afterwards.
+     * @param secretId  secret identifier
+     * @param secret    secret data
+     * @param algorithm encryption algorithm
+     */
+    void writeBytes(String secretId, ByteBuffer secret, String algorithm);
+
+    /**
+     * Reads a secret for the active color
+     * @param secretId secret identifier
+     * @return secret data
+     */
+    String read(String secretId);
+
+    /**
+     * Reads a secret for the active color as bytes, secrets written as Strings are UTF-8 encoded
+     * @param secretId secret identifier
+     * @return secret data which the caller owns and may zero, or null if the secret does not exist
+     */
+    byte[] readBytes(String secretId);
+
+    /**
+     * Reads many secrets for the active color
+     * @param secretIds secret identifiers
+     * @return secret data keyed by secret identifier, secrets that do not exist are omitted
+     * @throws IllegalStateException if any of the secrets is chunked
+     */
+    Map<String, String> readMany(Collection<String> secretIds);
+
+    /**
+     * Sets a Color as the active color.
+     * Other Colors will be made inactive.
+     * @param color the color to activate
+     */
+    void activate(Color color);
+
+    /**
+     * Gets the active Color
+     * @return active Color
+     */
+    Color getActive();
+
+    /**
+     * Gets the active Color and stats about secrets
+     * @return vault statistics
+     */
+    VaultInfo info();
+}
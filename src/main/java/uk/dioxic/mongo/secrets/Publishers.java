@@ -0,0 +1,84 @@
+package uk.dioxic.mongo.secrets;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapts reactive streams {@link Publisher}s to {@link CompletableFuture}s
+ */
+final class Publishers {
+
+    private Publishers() {
+    }
+
+    /**
+     * Subscribes to a publisher and completes with its first item
+     *
+     * @param publisher the publisher
+     * @return a future of the first item, or null if the publisher completes empty
+     */
+    static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+        var future = new CompletableFuture<T>();
+        publisher.subscribe(new Subscriber<T>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                if (future.complete(item)) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Subscribes to a publisher, discarding its items
+     *
+     * @param publisher the publisher
+     * @return a future that completes when the publisher completes
+     */
+    static CompletableFuture<Void> complete(Publisher<?> publisher) {
+        var future = new CompletableFuture<Void>();
+        publisher.subscribe(new Subscriber<Object>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Object item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,38 @@
+package uk.dioxic.mongo.secrets;
+
+import java.time.Duration;
+
+/**
+ * Progress of a key rotation
+ *
+ * @param color   the color being rotated
+ * @param rotated the number of secrets rotated so far, including any rotated before a resume
+ * @param total   the estimated number of secrets to rotate
+ * @param resumed the number of secrets already rotated when the rotation was resumed
+ * @param elapsed the time spent rotating since the rotation was started or resumed
+ */
+public record RotationProgress(Color color, long rotated, long total, long resumed, Duration elapsed) {
+
+    /**
+     * Gets the throughput since the rotation was started or resumed
+     *
+     * @return secrets rotated per second
+     */
+    public double rate() {
+        var seconds = elapsed.toNanos() / 1_000_000_000d;
+        return seconds > 0 ? (rotated - resumed) / seconds : 0;
+    }
+
+    /**
+     * Estimates the time to rotate the remaining secrets at the current rate
+     *
+     * @return estimated time remaining, or null if it cannot be estimated yet
+     */
+    public Duration eta() {
+        var rate = rate();
+        if (rate <= 0) {
+            return null;
+        }
+        return Duration.ofMillis((long) (Math.max(0, total - rotated) / rate * 1000));
+    }
+}
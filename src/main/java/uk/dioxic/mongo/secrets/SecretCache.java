@@ -0,0 +1,181 @@
+package uk.dioxic.mongo.secrets;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A size and time bounded cache of decrypted secrets keyed by Color and secret identifier.
+ * <p>
+ * Secrets are held as byte arrays which are zeroed when they are evicted, expired or invalidated
+ * so that plaintext does not linger on the heap as immutable Strings. Expired secrets are swept on insert,
+ * so they are wiped even if they are never requested again.
+ */
+public class SecretCache {
+
+    private static final long MAX_SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long sweepIntervalNanos;
+    private long nextSweep;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    SecretCache(int maxSize, Duration ttl) {
+        assert maxSize > 0 : "cache size must be positive";
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.sweepIntervalNanos = Math.min(ttlNanos, MAX_SWEEP_INTERVAL_NANOS);
+        this.nextSweep = System.nanoTime() + sweepIntervalNanos;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > SecretCache.this.maxSize) {
+                    eldest.getValue().wipe();
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a cached secret
+     *
+     * @param color    the Color the secret was read from
+     * @param secretId secret identifier
+     * @return a copy of the secret data which the caller may zero, or null if not cached
+     */
+    synchronized byte[] get(Color color, String secretId) {
+        var key = new Key(color, secretId);
+        var entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key).wipe();
+            evictions.increment();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value.clone();
+    }
+
+    /**
+     * Caches a secret. The cache takes ownership of the array and will zero it on eviction.
+     *
+     * @param color    the Color the secret was read from
+     * @param secretId secret identifier
+     * @param secret   secret data
+     */
+    synchronized void put(Color color, String secretId, byte[] secret) {
+        var now = System.nanoTime();
+        if (now - nextSweep >= 0) {
+            sweep(now);
+        }
+        var previous = entries.put(new Key(color, secretId), new Entry(secret, now + ttlNanos));
+        if (previous != null) {
+            previous.wipe();
+        }
+    }
+
+    /**
+     * Wipes and removes expired secrets. Entries are in access order rather than expiry order so every entry is
+     * checked, which is why sweeps are spaced out by up to a second rather than run on every insert.
+     */
+    private void sweep(long now) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next().getValue();
+            if (now - entry.expiresAt >= 0) {
+                entry.wipe();
+                it.remove();
+                evictions.increment();
+            }
+        }
+        nextSweep = now + sweepIntervalNanos;
+    }
+
+    /**
+     * Removes a secret from the cache for all Colors
+     *
+     * @param secretId secret identifier
+     */
+    synchronized void invalidate(String secretId) {
+        removeIf(key -> key.secretId.equals(secretId));
+    }
+
+    /**
+     * Removes a secret from the cache for a single Color
+     *
+     * @param color    the Color to invalidate
+     * @param secretId secret identifier
+     */
+    synchronized void invalidate(Color color, String secretId) {
+        var entry = entries.remove(new Key(color, secretId));
+        if (entry != null) {
+            entry.wipe();
+        }
+    }
+
+    /**
+     * Removes all secrets for a Color
+     *
+     * @param color the Color to invalidate
+     */
+    synchronized void invalidate(Color color) {
+        removeIf(key -> key.color == color);
+    }
+
+    /**
+     * Removes all secrets from the cache
+     */
+    synchronized void clear() {
+        removeIf(key -> true);
+    }
+
+    private void removeIf(Predicate<Key> predicate) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            var mapEntry = it.next();
+            if (predicate.test(mapEntry.getKey())) {
+                mapEntry.getValue().wipe();
+                it.remove();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record Key(Color color, String secretId) {
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+        void wipe() {
+            Arrays.fill(value, (byte) 0);
+        }
+    }
+}
@@ -3,44 +3,134 @@ package uk.dioxic.mongo.secrets;
 import com.mongodb.ClientEncryptionSettings;
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
 import com.mongodb.client.model.vault.DataKeyOptions;
 import com.mongodb.client.model.vault.EncryptOptions;
 import com.mongodb.client.vault.ClientEncryption;
 import com.mongodb.client.vault.ClientEncryptions;
+import com.mongodb.connection.ConnectionPoolSettings;
 import org.bson.BsonBinary;
+import org.bson.BsonDocument;
 import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import uk.dioxic.mongo.secrets.metrics.Instrumentation;
+import uk.dioxic.mongo.secrets.metrics.Operation;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 
 import static com.mongodb.client.model.Indexes.ascending;
 
-public class SecretService implements ISecretService {
+public class SecretService implements ISecretService, AutoCloseable {
 
-    private static final String DATA_KEY_ALT_NAME = "dek";
-    private static final String VAULT_DB = "keys";
-    private static final String METADATA_COLLECTION = "metadata";
-    private static final String VAULT_COLLECTION_SUFFIX = "_keys";
-    private static final String SECRETS_COLLECTION_SUFFIX = "_secrets";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final int READ_CHUNK_SIZE = 1000;
+
+    public static final String DEFAULT_ALGORITHM = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+    public static final int DEFAULT_CHUNK_SIZE = 255 * 1024;
+    private static final int CHUNK_BATCH_SIZE = 16;
+    private static final int VERIFY_PARTITION_SIZE = 10_000;
+    static final String DATA_KEY_ALT_NAME = "dek";
+    static final String VAULT_DB = "keys";
+    static final String METADATA_COLLECTION = "metadata";
+    static final String VAULT_COLLECTION_SUFFIX = "_keys";
+    static final String SECRETS_COLLECTION_SUFFIX = "_secrets";
+    static final String CHUNKS_COLLECTION_SUFFIX = "_chunks";
+    static final String STAGING_SUFFIX = "_staging";
+    static final String ROTATION_CHECKPOINT_ID = "rotation";
+    static final String SYNC_STATE_ID = "sync";
     private final MongoClient client;
     private final MongoClientSettings mongoClientSettings;
     private final Map<Color, ClientEncryption> vaultMap;
     private final Map<Color, byte[]> masterKeyMap;
     private final MongoDatabase database;
+    private final ActiveColorCache activeColorCache;
+    private final SecretCache secretCache;
+    private final ExecutorService workers;
+    private final ReadPreference secretReadPreference;
+    private final long hedgeDelayNanos;
+    private final ExecutorService hedgers;
+    private final Instrumentation instrumentation;
+    private final SecretSnapshot snapshot;
+    private final Duration snapshotMaxStaleness;
+    private final ScheduledExecutorService snapshotRefresher;
+    private final Duration snapshotRefreshInterval;
+    private volatile boolean snapshotRefreshed;
 
     public SecretService(String connectionString, String blueKey, String greenKey) {
+        this(connectionString, blueKey, greenKey, SecretServiceSettings.builder().build());
+    }
+
+    public SecretService(String connectionString, String blueKey, String greenKey, SecretServiceSettings settings) {
         // connect to MongoDB
         var cs = new ConnectionString(connectionString);
         mongoClientSettings = MongoClientSettings.builder()
@@ -50,18 +140,58 @@ public class SecretService implements ISecretService {
         this.database = client.getDatabase(Objects.requireNonNullElse(cs.getDatabase(), "secrets"));
 
         // populate the master key map
-        this.masterKeyMap = new HashMap<>() {{
+        this.masterKeyMap = new ConcurrentHashMap<>() {{
             put(Color.GREEN, transformKey(greenKey));
             put(Color.BLUE, transformKey(blueKey));
         }};
 
-        // populate the vault map
-        this.vaultMap = new HashMap<>();
-        for (Color color : masterKeyMap.keySet()) {
-            vaultMap.put(color, createClientEncryption(color));
+        // vaults are created on first use of each color
+        this.vaultMap = new ConcurrentHashMap<>();
+
+        // cache the active color so that reads don't need a metadata round trip
+        this.activeColorCache = new ActiveColorCache(
+                getMetadataCollection(),
+                settings.getActiveColorMaxStaleness(),
+                settings.isActiveColorChangeStream()
+        );
+
+        // optionally cache decrypted secrets
+        this.secretCache = settings.getSecretCacheMaxSize() > 0
+                ? new SecretCache(settings.getSecretCacheMaxSize(), settings.getSecretCacheTtl())
+                : null;
+
+        // workers for parallel encryption/decryption
+        this.workers = Executors.newFixedThreadPool(DEFAULT_PARALLELISM, daemonThreadFactory("msv-worker"));
+
+        // secret reads may be routed away from the primary and hedged, the active color never is
+        this.secretReadPreference = Objects.requireNonNullElse(settings.getSecretReadPreference(), mongoClientSettings.getReadPreference());
+        this.hedgeDelayNanos = settings.getHedgeDelay().toNanos();
+        this.hedgers = hedgeDelayNanos > 0 ? createHedgers(mongoClientSettings.getConnectionPoolSettings().getMaxSize()) : null;
+
+        this.instrumentation = new Instrumentation(settings.getMetrics());
+
+        // optionally keep an on-disk snapshot of the active secrets to read from when the cluster is unreachable
+        this.snapshotMaxStaleness = settings.getSnapshotMaxStaleness();
+        if (settings.getSnapshotPath() != null) {
+            this.snapshot = SecretSnapshot.open(settings.getSnapshotPath());
+            this.snapshotRefresher = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("msv-snapshot"));
+            this.snapshotRefreshInterval = settings.getSnapshotRefreshInterval();
+        } else {
+            this.snapshot = null;
+            this.snapshotRefresher = null;
+            this.snapshotRefreshInterval = null;
         }
     }
 
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     /**
      * Transforms a string into a 96 byte array
      *
@@ -79,55 +209,796 @@ public class SecretService implements ISecretService {
 
     @Override
     public void write(String secretId, String secret) {
-        write(secretId, secret, "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic");
+        write(secretId, secret, DEFAULT_ALGORITHM);
     }
 
     @Override
     public void write(String secretId, String secret, String algorithm) {
-        var options = new EncryptOptions(algorithm);
+        // write to every color concurrently
+        var pending = new ArrayList<Future<?>>();
         for (Color color : Color.values()) {
-            write(secretId, secret, color, options);
+            var options = new EncryptOptions(algorithm);
+            pending.add(workers.submit(() -> write(secretId, secret, color, options)));
         }
+        pending.forEach(SecretService::await);
     }
 
-    public void write(String secretId, String secret, Color color, EncryptOptions encryptOptions) {
-        assert vaultMap.containsKey(color) : "No vault configured for color " + color.name();
+    @Override
+    public void writeAll(Map<String, String> secrets, String algorithm) {
+        // write to every color concurrently
+        var pending = new ArrayList<Future<?>>();
+        for (Color color : Color.values()) {
+            var options = new EncryptOptions(algorithm);
+            pending.add(workers.submit(() -> writeAll(secrets, color, options)));
+        }
+        pending.forEach(SecretService::await);
+    }
+
+    /**
+     * Writes many secrets to a color with a single unordered bulk write of upserts
+     *
+     * @param secrets        secret data keyed by secret identifier
+     * @param color          the color to write to
+     * @param encryptOptions encryption options
+     */
+    public void writeAll(Map<String, String> secrets, Color color, EncryptOptions encryptOptions) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color.name();
+
+        if (secrets.isEmpty()) {
+            return;
+        }
 
-        getSecretsCollection(color).updateOne(
+        var updates = new ArrayList<UpdateOneModel<Document>>(secrets.size());
+        secrets.forEach((secretId, secret) -> updates.add(new UpdateOneModel<>(
                 Filters.eq(secretId),
-                Updates.set("secret", encrypt(secret, color, encryptOptions)),
+                Updates.combine(Updates.set("secret", encrypt(secret, color, encryptOptions)), Updates.unset("chunked")),
                 new UpdateOptions().upsert(true)
-        );
+        )));
+
+        var sample = instrumentation.start(Operation.WRITE, color);
+        sample.items(updates.size());
+        try {
+            // chunks of secrets that were chunked are removed once they have been overwritten
+            var filesIds = new ArrayList<Object>();
+            for (Document previous : getSecretsCollection(color)
+                    .find(Filters.and(Filters.in("_id", secrets.keySet()), Filters.exists("chunked")))
+                    .projection(Projections.include("chunked.files_id"))) {
+                filesIds.add(previous.get("chunked", Document.class).get("files_id"));
+            }
+            getSecretsCollection(color).bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            if (!filesIds.isEmpty()) {
+                getChunksCollection(color).deleteMany(Filters.in("files_id", filesIds));
+            }
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
+
+        if (secretCache != null) {
+            secrets.keySet().forEach(secretId -> secretCache.invalidate(color, secretId));
+        }
+    }
+
+    public void write(String secretId, String secret, Color color, EncryptOptions encryptOptions) {
+        write(secretId, new BsonString(secret), color, encryptOptions);
+    }
+
+    @Override
+    public void writeBytes(String secretId, ByteBuffer secret, String algorithm) {
+        // the copy is zeroed once every color has been written
+        var data = new byte[secret.remaining()];
+        secret.duplicate().get(data);
+        try {
+            var plainText = new BsonBinary(data);
+            var pending = new ArrayList<Future<?>>();
+            for (Color color : Color.values()) {
+                var options = new EncryptOptions(algorithm);
+                pending.add(workers.submit(() -> write(secretId, plainText, color, options)));
+            }
+            pending.forEach(SecretService::await);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
     }
 
-    private Document encrypt(Document document, Color color, EncryptOptions encryptOptions) {
-        document.computeIfPresent("secret", (key, val) -> encrypt(val.toString(), color, encryptOptions));
+    private void write(String secretId, BsonValue plainText, Color color, EncryptOptions encryptOptions) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color.name();
+
+        var cipherText = encrypt(plainText, color, encryptOptions);
+        var sample = instrumentation.start(Operation.WRITE, color);
+        try {
+            var previous = getSecretsCollection(color).findOneAndUpdate(
+                    Filters.eq(secretId),
+                    Updates.combine(Updates.set("secret", cipherText), Updates.unset("chunked")),
+                    new FindOneAndUpdateOptions()
+                            .upsert(true)
+                            .projection(Projections.include("chunked.files_id"))
+                            .returnDocument(ReturnDocument.BEFORE)
+            );
+            deleteChunks(previous, color);
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
+
+        if (secretCache != null) {
+            secretCache.invalidate(color, secretId);
+        }
+    }
+
+    /**
+     * Re-encrypts a field of a document for another color, keeping the plaintext's BSON type
+     */
+    private Document reencrypt(Document document, String field, Color sourceColor, Color targetColor,
+                               ClientEncryption targetVault, EncryptOptions encryptOptions) {
+        document.computeIfPresent(field, (key, val) -> encrypt(
+                decryptValue(toBsonBinary((Binary) val), sourceColor), targetColor, targetVault, encryptOptions));
         return document;
     }
 
-    private BsonBinary encrypt(String plainText, Color color, EncryptOptions encryptOptions) {
-        return vaultMap.get(color).encrypt(new BsonString(plainText), encryptOptions.keyAltName(DATA_KEY_ALT_NAME));
+    BsonBinary encrypt(String plainText, Color color, EncryptOptions encryptOptions) {
+        return encrypt(new BsonString(plainText), color, encryptOptions);
+    }
+
+    private BsonBinary encrypt(BsonValue plainText, Color color, EncryptOptions encryptOptions) {
+        return encrypt(plainText, color, getVault(color), encryptOptions);
+    }
+
+    private BsonBinary encrypt(BsonValue plainText, Color color, ClientEncryption vault, EncryptOptions encryptOptions) {
+        var sample = instrumentation.start(Operation.ENCRYPT, color);
+        try {
+            var cipherText = vault.encrypt(plainText, encryptOptions.keyAltName(DATA_KEY_ALT_NAME));
+            sample.bytes(cipherText.getData().length);
+            return cipherText;
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
     }
 
     private MongoCollection<Document> getSecretsCollection(Color color) {
         return database.getCollection(color.name().toLowerCase() + SECRETS_COLLECTION_SUFFIX);
     }
 
+    private MongoCollection<Document> getStagingCollection(Color color, String suffix) {
+        return database.getCollection(color.name().toLowerCase() + suffix + STAGING_SUFFIX);
+    }
+
+    private MongoCollection<RawBsonDocument> getRawSecretsCollection(Color color) {
+        return database.getCollection(color.name().toLowerCase() + SECRETS_COLLECTION_SUFFIX, RawBsonDocument.class);
+    }
+
     @Override
     public String read(String secretId) {
-        return read(secretId, getActive());
+        return readWithSnapshot(color -> read(secretId, color), () -> {
+            var plainText = readSnapshot(secretId);
+            assert plainText != null : "No secret found for id: " + secretId;
+            return toSecretString(plainText);
+        });
     }
 
     public String read(String secretId, Color color) {
-        assert vaultMap.containsKey(color) : "No vault configured for color " + color;
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color;
+
+        if (secretCache != null) {
+            var cached = secretCache.get(color, secretId);
+            if (cached != null) {
+                var secret = new String(cached, StandardCharsets.UTF_8);
+                Arrays.fill(cached, (byte) 0);
+                return secret;
+            }
+        }
+
+        var plainText = find(secretId, color);
+        assert plainText != null : "No secret found for id: " + secretId;
+
+        var secret = toSecretString(plainText);
+        if (secretCache != null) {
+            secretCache.put(color, secretId, toSecretBytes(plainText));
+        }
+        return secret;
+    }
+
+    @Override
+    public byte[] readBytes(String secretId) {
+        return readWithSnapshot(color -> readBytes(secretId, color), () -> {
+            var plainText = readSnapshot(secretId);
+            return plainText != null ? toSecretBytes(plainText) : null;
+        });
+    }
+
+    /**
+     * Reads secrets from the active color, falling back to the snapshot while it is within its max staleness.
+     * Until the snapshot has been refreshed the cluster may be unavailable, so reads go straight to the snapshot
+     * to let services start without waiting for server selection.
+     *
+     * @param reader       reads the secrets from a color of the cluster
+     * @param fromSnapshot reads the secrets from the snapshot
+     */
+    private <T> T readWithSnapshot(Function<Color, T> reader, Supplier<T> fromSnapshot) {
+        if (snapshot != null && !snapshotRefreshed && snapshot.isUsable(snapshotMaxStaleness)) {
+            return fromSnapshot.get();
+        }
+        try {
+            return reader.apply(getActive());
+        } catch (MongoTimeoutException | MongoSocketException e) {
+            if (snapshot == null || !snapshot.isUsable(snapshotMaxStaleness)) {
+                throw e;
+            }
+            return fromSnapshot.get();
+        }
+    }
+
+    private BsonValue readSnapshot(String secretId) {
+        var color = snapshot.getColor();
+        var cipherText = snapshot.find(secretId);
+        if (cipherText == null) {
+            return null;
+        }
+        var sample = instrumentation.start(Operation.DECRYPT, color);
+        sample.bytes(cipherText.getData().length);
+        try {
+            return snapshot.decrypt(cipherText, masterKeyMap.get(color));
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
+    }
 
-        var document = getSecretsCollection(color)
-                .find(Filters.eq("_id", secretId))
+    /**
+     * Brings the snapshot up to date with the active color. Changes since the previous refresh are applied from a
+     * change stream when the snapshot has a resume token, otherwise the active secrets are read in full.
+     * Chunked secrets are not held in the snapshot.
+     */
+    public void refreshSnapshot() {
+        assert snapshot != null : "No snapshot configured";
+
+        var color = getActive();
+        var collection = getRawSecretsCollection(color);
+        var keyDocument = getKeyVaultCollection(color)
+                .withDocumentClass(BsonDocument.class)
+                .find(Filters.eq("keyAltNames", DATA_KEY_ALT_NAME))
                 .first();
+        assert keyDocument != null : "No data key found for " + color;
 
+        Map<String, byte[]> entries = null;
+        BsonDocument resumeToken = null;
+        if (color == snapshot.getColor() && snapshot.getResumeToken() != null) {
+            try (var cursor = collection.watch()
+                    .resumeAfter(snapshot.getResumeToken())
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .cursor()) {
+                entries = snapshot.readAll();
+                if (applyChanges(entries, cursor)) {
+                    resumeToken = cursor.getResumeToken();
+                } else {
+                    entries = null;
+                }
+            } catch (MongoCommandException e) {
+                // the resume token has fallen off the oplog
+                entries = null;
+            }
+        }
+
+        if (entries == null) {
+            // open the change stream before reading so changes made during the read are picked up
+            MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor = null;
+            try {
+                cursor = collection.watch().fullDocument(FullDocument.UPDATE_LOOKUP).cursor();
+            } catch (MongoCommandException e) {
+                // change streams need a replica set, every refresh reads in full
+            }
+            try {
+                entries = new HashMap<>();
+                for (RawBsonDocument document : collection.find()) {
+                    putSnapshotEntry(entries, document);
+                }
+                if (cursor != null && applyChanges(entries, cursor)) {
+                    resumeToken = cursor.getResumeToken();
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+
+        snapshot.write(color, resumeToken, keyDocument, entries);
+        snapshotRefreshed = true;
+    }
+
+    /**
+     * Applies the changes available on a change stream to snapshot entries
+     *
+     * @return false if the collection was dropped or renamed and the snapshot must be read in full
+     */
+    private static boolean applyChanges(Map<String, byte[]> entries, MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> cursor) {
+        ChangeStreamDocument<RawBsonDocument> change;
+        while ((change = cursor.tryNext()) != null) {
+            switch (change.getOperationType()) {
+                case INSERT, UPDATE, REPLACE -> {
+                    // the full document is missing if the secret was deleted since - the delete follows
+                    if (change.getFullDocument() != null) {
+                        putSnapshotEntry(entries, change.getFullDocument());
+                    }
+                }
+                case DELETE -> {
+                    var secretId = change.getDocumentKey().get("_id");
+                    if (secretId.isString()) {
+                        entries.remove(secretId.asString().getValue());
+                    }
+                }
+                case DROP, RENAME, DROP_DATABASE, INVALIDATE -> {
+                    return false;
+                }
+                default -> {
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void putSnapshotEntry(Map<String, byte[]> entries, RawBsonDocument document) {
+        var secretId = document.get("_id");
+        if (secretId.isString() && document.containsKey("secret")) {
+            entries.put(secretId.asString().getValue(), document.getBinary("secret").getData());
+        } else if (secretId.isString()) {
+            // chunked secrets are read from the cluster
+            entries.remove(secretId.asString().getValue());
+        }
+    }
+
+    /**
+     * Reads a secret for a color without creating String copies of the plaintext
+     *
+     * @param secretId secret identifier
+     * @param color    the color to read from
+     * @return secret data which the caller owns and may zero, or null if the secret does not exist
+     */
+    public byte[] readBytes(String secretId, Color color) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color;
+
+        if (secretCache != null) {
+            var cached = secretCache.get(color, secretId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        var plainText = find(secretId, color);
+        if (plainText == null) {
+            return null;
+        }
+
+        var secret = toSecretBytes(plainText);
+        if (secretCache != null) {
+            secretCache.put(color, secretId, secret.clone());
+        }
+        return secret;
+    }
+
+    /**
+     * Finds and decrypts a secret. The document is read as raw BSON so the ciphertext is only copied once,
+     * straight into the {@link BsonBinary} handed to the vault.
+     *
+     * @return the decrypted secret, or null if the secret does not exist
+     */
+    private BsonValue find(String secretId, Color color) {
+        RawBsonDocument document;
+        var sample = instrumentation.start(Operation.FIND, color);
+        try {
+            var collection = getRawSecretsCollection(color).withReadPreference(secretReadPreference);
+            document = hedged(() -> collection.find(Filters.eq("_id", secretId)).first());
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
+        if (document == null) {
+            return null;
+        }
+        if (!document.containsKey("secret") && document.containsKey("chunked")) {
+            throw new IllegalStateException("Secret " + secretId + " is chunked - use readChunked");
+        }
+        return decryptValue(document.getBinary("secret"), color);
+    }
+
+    /**
+     * Creates the hedge threads, at most one per pooled connection as every hedge thread holds a connection
+     *
+     * @param maxConnections the maximum size of the connection pool, zero if unbounded
+     */
+    private static ExecutorService createHedgers(int maxConnections) {
+        var maxThreads = maxConnections > 0 ? maxConnections : ConnectionPoolSettings.builder().build().getMaxSize();
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), daemonThreadFactory("msv-hedge"));
+    }
+
+    /**
+     * Runs a secret query, hedged if hedging is enabled. The query runs on a hedge thread and a second query is sent
+     * if the first hasn't answered within the hedge delay or has failed, whichever succeeds first is used. Server
+     * selection picks a random member within the latency window, so with a nearest or secondary read preference the
+     * second query usually goes to another member.
+     * <p>
+     * The slower query is left to finish and its result discarded, as interrupting it would close its connection.
+     * The number of hedge threads is bounded, when they are all busy queries run on the calling thread unhedged.
+     */
+    private <T> T hedged(Supplier<T> query) {
+        if (hedgers == null) {
+            return query.get();
+        }
+
+        var completion = new ExecutorCompletionService<T>(hedgers);
+        try {
+            completion.submit(query::get);
+        } catch (RejectedExecutionException e) {
+            return query.get();
+        }
+        try {
+            RuntimeException failure = null;
+            var first = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (first != null) {
+                try {
+                    return await(first);
+                } catch (RuntimeException e) {
+                    // a query that failed fast, e.g. on a member that is going down, is hedged straight away
+                    failure = e;
+                }
+            }
+            try {
+                completion.submit(query::get);
+            } catch (RejectedExecutionException e) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return await(completion.take());
+            }
+            for (int pending = failure != null ? 1 : 2; pending > 0; pending--) {
+                try {
+                    return await(completion.take());
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a secret query", e);
+        }
+    }
+
+    @Override
+    public Map<String, String> readMany(Collection<String> secretIds) {
+        return readWithSnapshot(color -> readMany(secretIds, color), () -> {
+            // chunked secrets aren't held in the snapshot, so they are omitted like missing ones
+            var secrets = new HashMap<String, String>();
+            for (String secretId : new LinkedHashSet<>(secretIds)) {
+                var plainText = readSnapshot(secretId);
+                if (plainText != null) {
+                    secrets.put(secretId, toSecretString(plainText));
+                }
+            }
+            return secrets;
+        });
+    }
+
+    /**
+     * Reads many secrets for a color.
+     * Secrets are fetched with one query per chunk of identifiers and decrypted in parallel.
+     *
+     * @param secretIds secret identifiers
+     * @param color     the color to read from
+     * @return secret data keyed by secret identifier, secrets that do not exist are omitted
+     * @throws IllegalStateException if any of the secrets is chunked
+     */
+    public Map<String, String> readMany(Collection<String> secretIds, Color color) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color;
+
+        var secrets = new HashMap<String, String>();
+        var uncachedIds = new ArrayList<String>();
+        for (String secretId : new LinkedHashSet<>(secretIds)) {
+            var cached = secretCache != null ? secretCache.get(color, secretId) : null;
+            if (cached != null) {
+                secrets.put(secretId, new String(cached, StandardCharsets.UTF_8));
+                Arrays.fill(cached, (byte) 0);
+            } else {
+                uncachedIds.add(secretId);
+            }
+        }
+
+        var pending = new ArrayList<Future<Document>>();
+        for (int i = 0; i < uncachedIds.size(); i += READ_CHUNK_SIZE) {
+            var chunk = uncachedIds.subList(i, Math.min(i + READ_CHUNK_SIZE, uncachedIds.size()));
+            var sample = instrumentation.start(Operation.FIND, color);
+            sample.items(chunk.size());
+            try {
+                var collection = getSecretsCollection(color).withReadPreference(secretReadPreference);
+                List<Document> documents = hedged(() -> collection.find(Filters.in("_id", chunk))
+                        .batchSize(chunk.size())
+                        .into(new ArrayList<>()));
+                for (Document encDoc : documents) {
+                    pending.add(workers.submit(() -> decrypt(encDoc, color)));
+                }
+            } catch (RuntimeException e) {
+                sample.error(e);
+                throw e;
+            } finally {
+                sample.stop();
+            }
+        }
+
+        var chunkedIds = new ArrayList<String>();
+        for (Future<Document> future : pending) {
+            var document = await(future);
+            var secretId = document.getString("_id");
+            var secret = document.getString("secret");
+            if (secret == null) {
+                // chunked secrets must be streamed with readChunked
+                chunkedIds.add(secretId);
+                continue;
+            }
+            secrets.put(secretId, secret);
+            if (secretCache != null) {
+                secretCache.put(color, secretId, secret.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        if (!chunkedIds.isEmpty()) {
+            throw new IllegalStateException("Secrets " + chunkedIds + " are chunked - use readChunked");
+        }
+        return secrets;
+    }
+
+    /**
+     * Streams every secret of the active color to a consumer.
+     * Secrets are read with cursor batching and each batch is decrypted in parallel; the consumer is called
+     * on the calling thread.
+     *
+     * Chunked secrets are not exported, their identifiers are passed to {@code skipped} instead.
+     *
+     * @param batchSize number of secrets per cursor batch
+     * @param consumer  receives each secret identifier and secret
+     * @param skipped   receives the identifier of each chunked secret
+     * @return the number of secrets exported
+     */
+    public long export(int batchSize, BiConsumer<String, String> consumer, Consumer<String> skipped) {
+        assert batchSize > 0 : "batch size must be positive";
+
+        var color = getActive();
+        long count = 0;
+        var batch = new ArrayList<Document>(batchSize);
+        for (Document encDoc : getSecretsCollection(color).find().batchSize(batchSize)) {
+            batch.add(encDoc);
+            if (batch.size() == batchSize) {
+                count += export(batch, color, consumer, skipped);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            count += export(batch, color, consumer, skipped);
+        }
+        return count;
+    }
+
+    private int export(List<Document> batch, Color color, BiConsumer<String, String> consumer, Consumer<String> skipped) {
+        var pending = new ArrayList<Future<Document>>(batch.size());
+        for (Document encDoc : batch) {
+            pending.add(workers.submit(() -> decrypt(encDoc, color)));
+        }
+        int count = 0;
+        for (Future<Document> future : pending) {
+            var document = await(future);
+            if (document.get("secret") instanceof String secret) {
+                consumer.accept(String.valueOf(document.get("_id")), secret);
+                count++;
+            } else {
+                skipped.accept(String.valueOf(document.get("_id")));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a large secret to all Colors as a sequence of encrypted chunks (GridFS-style), so the secret is
+     * never held in memory as a whole and isn't limited by the maximum document size.
+     * <p>
+     * The chunks are stored in the {@code <color>_chunks} collection and the secrets collection holds a manifest
+     * that points at them. The manifest is replaced only once every chunk has been written, so readers never see
+     * a partially written secret, and the chunks of the previous version are removed afterwards.
+     *
+     * @param secretId  secret identifier
+     * @param secret    secret data, read to the end but not closed
+     * @param chunkSize plaintext bytes per chunk
+     * @param compress  whether to deflate the data before it is encrypted
+     * @param algorithm encryption algorithm
+     * @return the number of bytes read from the stream
+     */
+    public long writeChunked(String secretId, InputStream secret, int chunkSize, boolean compress, String algorithm) {
+        assert chunkSize > 0 : "chunk size must be positive";
+
+        var filesId = new ObjectId();
+        var encryptOptions = new EncryptOptions(algorithm);
+        var deflater = compress ? new Deflater() : null;
+        var input = compress ? new DeflaterInputStream(secret, deflater) : secret;
+        long length = 0;
+        int chunks = 0;
+
+        for (Color color : Color.values()) {
+            getChunksCollection(color).createIndex(ascending("files_id", "n"), new IndexOptions().unique(true));
+        }
+
+        try {
+            // encrypt chunks for every color on the workers and insert them in batches to keep memory bounded
+            var pending = new EnumMap<Color, List<Future<Document>>>(Color.class);
+            var plainTexts = new ArrayList<byte[]>(CHUNK_BATCH_SIZE);
+            while (true) {
+                var data = input.readNBytes(chunkSize);
+                if (data.length == 0) {
+                    break;
+                }
+                var n = chunks++;
+                plainTexts.add(data);
+                for (Color color : Color.values()) {
+                    pending.computeIfAbsent(color, c -> new ArrayList<>()).add(workers.submit(() -> new Document("files_id", filesId)
+                            .append("n", n)
+                            .append("data", encrypt(new BsonBinary(data), color, encryptOptions))));
+                }
+                length += data.length;
+                if (plainTexts.size() == CHUNK_BATCH_SIZE) {
+                    insertChunks(pending, plainTexts);
+                }
+            }
+            insertChunks(pending, plainTexts);
+            if (deflater != null) {
+                length = deflater.getBytesRead();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        var manifest = new Document("chunked", new Document("files_id", filesId)
+                .append("length", length)
+                .append("chunkSize", chunkSize)
+                .append("chunks", chunks)
+                .append("compressed", compress));
+
+        for (Color color : Color.values()) {
+            var previous = getSecretsCollection(color).findOneAndReplace(
+                    Filters.eq(secretId),
+                    manifest,
+                    new FindOneAndReplaceOptions().upsert(true).returnDocument(ReturnDocument.BEFORE)
+            );
+            deleteChunks(previous, color);
+            if (secretCache != null) {
+                secretCache.invalidate(color, secretId);
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Deletes the chunks of the previous version of a secret, if it was chunked
+     */
+    private void deleteChunks(Document previous, Color color) {
+        if (previous != null && previous.get("chunked") instanceof Document previousManifest) {
+            getChunksCollection(color).deleteMany(Filters.eq("files_id", previousManifest.get("files_id")));
+        }
+    }
+
+    /**
+     * Inserts the pending encrypted chunks of every color and zeroes their plaintexts
+     */
+    private void insertChunks(Map<Color, List<Future<Document>>> pending, List<byte[]> plainTexts) {
+        try {
+            var inserts = new ArrayList<Future<?>>();
+            pending.forEach((color, chunks) -> {
+                if (!chunks.isEmpty()) {
+                    var documents = chunks.stream().map(SecretService::await).toList();
+                    inserts.add(workers.submit(() -> getChunksCollection(color).insertMany(documents)));
+                }
+            });
+            inserts.forEach(SecretService::await);
+        } finally {
+            plainTexts.forEach(data -> Arrays.fill(data, (byte) 0));
+            plainTexts.clear();
+            pending.values().forEach(List::clear);
+        }
+    }
+
+    /**
+     * Streams a chunked secret from the active color
+     *
+     * @param secretId secret identifier
+     * @param out      receives the secret data, not closed
+     * @return the length of the secret
+     */
+    public long readChunked(String secretId, OutputStream out) {
+        return readChunked(secretId, getActive(), out);
+    }
+
+    /**
+     * Streams a chunked secret from a color. Chunks are fetched a few at a time and each decrypted chunk is
+     * zeroed once it has been written, so memory use does not depend on the size of the secret.
+     *
+     * @param secretId secret identifier
+     * @param color    the color to read from
+     * @param out      receives the secret data, not closed
+     * @return the length of the secret
+     */
+    public long readChunked(String secretId, Color color, OutputStream out) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color;
+
+        var document = getSecretsCollection(color).find(Filters.eq(secretId)).first();
         assert document != null : "No secret found for id: " + secretId;
+        var manifest = document.get("chunked", Document.class);
+        if (manifest == null) {
+            throw new IllegalStateException("Secret " + secretId + " is not chunked - use read");
+        }
 
-        return decrypt(document, color).getString("secret");
+        var inflater = manifest.getBoolean("compressed") ? new Inflater() : null;
+        var output = inflater != null ? new InflaterOutputStream(out, inflater) : out;
+        int n = 0;
+        try {
+            for (RawBsonDocument chunk : getRawChunksCollection(color)
+                    .find(Filters.eq("files_id", manifest.getObjectId("files_id")))
+                    .sort(ascending("n"))
+                    .batchSize(CHUNK_BATCH_SIZE)) {
+                if (chunk.getInt32("n").getValue() != n) {
+                    throw new IllegalStateException("Secret " + secretId + " is missing chunk " + n);
+                }
+                var data = decryptValue(chunk.getBinary("data"), color).asBinary().getData();
+                try {
+                    output.write(data);
+                } finally {
+                    Arrays.fill(data, (byte) 0);
+                }
+                n++;
+            }
+            if (n != manifest.getInteger("chunks")) {
+                throw new IllegalStateException("Secret " + secretId + " has " + n + " of " + manifest.getInteger("chunks") + " chunks");
+            }
+            if (inflater != null) {
+                ((InflaterOutputStream) output).finish();
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        return getLong(manifest, "length");
+    }
+
+    private MongoCollection<Document> getChunksCollection(Color color) {
+        return database.getCollection(color.name().toLowerCase() + CHUNKS_COLLECTION_SUFFIX);
+    }
+
+    private MongoCollection<RawBsonDocument> getRawChunksCollection(Color color) {
+        return database.getCollection(color.name().toLowerCase() + CHUNKS_COLLECTION_SUFFIX, RawBsonDocument.class);
+    }
+
+    /**
+     * Gets the decrypted secret cache
+     *
+     * @return the secret cache, or empty if caching is disabled
+     */
+    public Optional<SecretCache> getSecretCache() {
+        return Optional.ofNullable(secretCache);
     }
 
     private Document decrypt(Document document, Color color) {
@@ -135,71 +1006,789 @@ public class SecretService implements ISecretService {
         return document;
     }
 
-    private String decrypt(Binary binary, Color color) {
-        assert vaultMap.containsKey(color) : "No vault configured for color " + color.name();
-        BsonBinary cipherText = new BsonBinary(binary.getType(), binary.getData());
-        return vaultMap.get(color).decrypt(cipherText).asString().getValue();
+    String decrypt(Binary binary, Color color) {
+        return toSecretString(decryptValue(toBsonBinary(binary), color));
+    }
+
+    private BsonValue decryptValue(BsonBinary cipherText, Color color) {
+        assert masterKeyMap.containsKey(color) : "No vault configured for color " + color.name();
+        var sample = instrumentation.start(Operation.DECRYPT, color);
+        sample.bytes(cipherText.getData().length);
+        try {
+            return getVault(color).decrypt(cipherText);
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
+    }
+
+    private static BsonBinary toBsonBinary(Binary binary) {
+        return new BsonBinary(binary.getType(), binary.getData());
+    }
+
+    /**
+     * Converts a decrypted secret to a String, secrets written as bytes are decoded as UTF-8
+     */
+    static String toSecretString(BsonValue plainText) {
+        return plainText.isBinary()
+                ? new String(plainText.asBinary().getData(), StandardCharsets.UTF_8)
+                : plainText.asString().getValue();
+    }
+
+    /**
+     * Converts a decrypted secret to bytes, secrets written as Strings are encoded as UTF-8.
+     * The array of a binary secret is returned without copying.
+     */
+    private static byte[] toSecretBytes(BsonValue plainText) {
+        return plainText.isBinary()
+                ? plainText.asBinary().getData()
+                : plainText.asString().getValue().getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
     public Color getActive() {
-        var meta = client
-                .getDatabase(VAULT_DB)
-                .getCollection(METADATA_COLLECTION)
-                .find(Filters.eq("SecretService"))
-                .first();
-        assert meta != null : "No metadata found with _id=SecretService";
-        assert meta.containsKey("active") : "No metadata found for active color";
-        return Color.valueOf(meta.getString("active"));
+        var sample = instrumentation.start(Operation.GET_ACTIVE, null);
+        try {
+            return activeColorCache.get();
+        } catch (RuntimeException e) {
+            sample.error(e);
+            throw e;
+        } finally {
+            sample.stop();
+        }
     }
 
     @Override
     public void activate(Color color) {
-        client
-                .getDatabase(VAULT_DB)
-                .getCollection(METADATA_COLLECTION)
+        getMetadataCollection()
                 .updateOne(
-                        Filters.eq("SecretService"),
+                        Filters.eq(ActiveColorCache.METADATA_ID),
                         Updates.set("active", color.name()),
                         new UpdateOptions().upsert(true)
                 );
+        activeColorCache.set(color);
+
+        if (secretCache != null) {
+            secretCache.clear();
+        }
     }
 
     @Override
     public long rotate(byte[] masterKey, String algorithm) {
+        return rotate(masterKey, algorithm, DEFAULT_BATCH_SIZE, DEFAULT_PARALLELISM, progress -> {});
+    }
+
+    /**
+     * Re-encrypts the data of the inactive color by reading data from the active color
+     * and encrypting it with a different key into the inactive color.
+     * <p>
+     * The new set is built in staging collections - {@code <color>_secrets_staging}, {@code <color>_chunks_staging}
+     * and the {@code <color>_keys_staging} key vault - and renamed over the inactive color's collections once it is
+     * complete, so the inactive color stays readable with its previous key for the whole rotation. Secondary indexes
+     * on the staging collections are built after the bulk load.
+     * <p>
+     * Secrets are read from the active collection in {@code _id} order and in batches, re-encrypted by a pool
+     * of workers and upserted into the staging collection with unordered bulk writes.
+     * <p>
+     * A checkpoint of the last completed batch is kept in the metadata collection. If a previous rotation of the
+     * same color with the same master key did not finish, it is resumed from the checkpoint instead of starting over.
+     * <p>
+     * Secrets written while the rotation runs are not lost when the staged set is swapped in: a change stream
+     * resume token for the active secrets and chunks is recorded in the checkpoint when the rotation starts, and the
+     * changes made since are replayed into the staging collections before the swap and into the renamed collections
+     * after it. Change streams need a replica set, on a standalone server writes must not be made during a rotation.
+     *
+     * @param masterKey        the master key for rotation
+     * @param algorithm        encryption algorithm
+     * @param batchSize        number of secrets per cursor batch and bulk write
+     * @param parallelism      number of workers re-encrypting batches concurrently
+     * @param progressListener notified after each completed batch
+     * @return the number of secrets rotated
+     */
+    public long rotate(byte[] masterKey, String algorithm, int batchSize, int parallelism,
+                       Consumer<RotationProgress> progressListener) {
+        assert batchSize > 0 : "batch size must be positive";
+        assert parallelism > 0 : "parallelism must be positive";
+
         var encryptOptions = new EncryptOptions(algorithm);
         var activeColor = getActive();
         var inactiveColor = activeColor.flip();
         var activeCollection = getSecretsCollection(activeColor);
-        var inactiveCollection = getSecretsCollection(activeColor.flip());
+        var stagingCollection = getStagingCollection(inactiveColor, SECRETS_COLLECTION_SUFFIX);
+        var stagingChunks = getStagingCollection(inactiveColor, CHUNKS_COLLECTION_SUFFIX);
+        var stagingKeyVault = getStagingKeyVaultCollection(inactiveColor);
+        var metadataCollection = getMetadataCollection();
+        var keyFingerprint = fingerprint(masterKey);
+
+        var checkpoint = metadataCollection.find(Filters.eq(ROTATION_CHECKPOINT_ID)).first();
+        var resume = checkpoint != null
+                && inactiveColor.name().equals(checkpoint.getString("color"))
+                && keyFingerprint.equals(checkpoint.getString("keyFingerprint"));
+
+        // the new key is only used for the staging key vault until the rotation completes
+        var stagingVault = createClientEncryption(stagingKeyVault.getNamespace().getFullName(), masterKey);
+
+        Object lastId = null;
         long count = 0;
+        BsonDocument resumeToken;
+        try {
+            if (resume) {
+                lastId = checkpoint.get("lastId");
+                count = checkpoint.getLong("count");
+                var savedToken = checkpoint.get("resumeToken", Document.class);
+                resumeToken = savedToken == null ? null : savedToken.toBsonDocument(BsonDocument.class, mongoClientSettings.getCodecRegistry());
+            } else {
+                // changes made from here on are replayed before the swap, the active collections are read after it
+                resumeToken = getResumeToken(activeColor);
 
-        // drop the inactive secrets
-        inactiveCollection.drop();
+                // start from empty staging collections and a new staging key vault
+                stagingCollection.drop();
+                stagingChunks.drop();
+                database.createCollection(stagingCollection.getNamespace().getCollectionName());
+                initializeKeyVault(stagingKeyVault, stagingVault);
 
-        // update the master key for the inactive color
+                metadataCollection.replaceOne(
+                        Filters.eq(ROTATION_CHECKPOINT_ID),
+                        new Document("color", inactiveColor.name())
+                                .append("keyFingerprint", keyFingerprint)
+                                .append("lastId", null)
+                                .append("count", 0L)
+                                .append("resumeToken", resumeToken)
+                                .append("startedAt", new Date()),
+                        new ReplaceOptions().upsert(true)
+                );
+            }
+
+            var resumed = count;
+            var total = activeCollection.estimatedDocumentCount();
+            var startTime = System.nanoTime();
+            var filter = lastId == null ? Filters.empty() : Filters.gt("_id", lastId);
+
+            // read the active secrets in batches, re-encrypt with the new key on the worker pool
+            // and bulk write into the staging secrets collection
+            var executor = Executors.newFixedThreadPool(parallelism, daemonThreadFactory("msv-rotate"));
+            var pending = new ArrayDeque<Future<RotatedBatch>>();
+            try {
+                var batch = new ArrayList<Document>(batchSize);
+                for (Document encDoc : activeCollection.find(filter).sort(ascending("_id")).batchSize(batchSize)) {
+                    batch.add(encDoc);
+                    if (batch.size() == batchSize) {
+                        pending.add(submitRotation(executor, batch, stagingCollection, "secret", activeColor, inactiveColor, stagingVault, encryptOptions));
+                        batch = new ArrayList<>(batchSize);
+                    }
+                    // bound the number of in-flight batches so memory stays flat for large vaults
+                    if (pending.size() > parallelism * 2) {
+                        count = checkpoint(await(pending.poll()), count);
+                        progressListener.accept(new RotationProgress(inactiveColor, count, total, resumed, Duration.ofNanos(System.nanoTime() - startTime)));
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    pending.add(submitRotation(executor, batch, stagingCollection, "secret", activeColor, inactiveColor, stagingVault, encryptOptions));
+                }
+                while (!pending.isEmpty()) {
+                    count = checkpoint(await(pending.poll()), count);
+                    progressListener.accept(new RotationProgress(inactiveColor, count, total, resumed, Duration.ofNanos(System.nanoTime() - startTime)));
+                }
+
+                rotateChunks(executor, parallelism, activeColor, inactiveColor, stagingChunks, stagingVault, encryptOptions);
+            } finally {
+                pending.forEach(future -> future.cancel(true));
+                executor.shutdownNow();
+            }
+
+            // building the index once over the loaded chunks is cheaper than maintaining it on every insert
+            stagingChunks.createIndex(ascending("files_id", "n"), new IndexOptions().unique(true));
+
+            if (resumeToken != null) {
+                resumeToken = replayChanges(resumeToken, activeColor, inactiveColor, stagingCollection, stagingChunks, stagingVault, encryptOptions);
+            }
+        } finally {
+            stagingVault.close();
+        }
+
+        // swap the staged set in - the key vault first so the new secrets can be decrypted as soon as they appear
+        var renameOptions = new RenameCollectionOptions().dropTarget(true);
+        stagingKeyVault.renameCollection(getKeyVaultCollection(inactiveColor).getNamespace(), renameOptions);
+        stagingCollection.renameCollection(getSecretsCollection(inactiveColor).getNamespace(), renameOptions);
+        stagingChunks.renameCollection(getChunksCollection(inactiveColor).getNamespace(), renameOptions);
+
+        // switch the inactive color to the new master key and re-create its vault with it
         masterKeyMap.put(inactiveColor, masterKey);
+        var previousVault = vaultMap.remove(inactiveColor);
+        if (previousVault != null) {
+            previousVault.close();
+        }
+
+        // writes made between the last replay and the swap went to the collections that were replaced
+        if (resumeToken != null) {
+            replayChanges(resumeToken, activeColor, inactiveColor, getSecretsCollection(inactiveColor), getChunksCollection(inactiveColor),
+                    getVault(inactiveColor), encryptOptions);
+        }
+        if (secretCache != null) {
+            secretCache.invalidate(inactiveColor);
+        }
+
+        // the rotation is complete - record it and remove the checkpoint, a sync position from before the rotation
+        // no longer applies to the rebuilt inactive color
+        metadataCollection.updateOne(
+                Filters.eq(ActiveColorCache.METADATA_ID),
+                Updates.combine(
+                        Updates.set("lastRotation", new Date()),
+                        Updates.set("lastRotationColor", inactiveColor.name())
+                ),
+                new UpdateOptions().upsert(true)
+        );
+        clearRotationCheckpoint();
+        clearSyncState();
+
+        return count;
+    }
+
+    /**
+     * Watches the changes made to the secrets and chunks of a color
+     */
+    private ChangeStreamIterable<Document> watchSecrets(Color color) {
+        var collections = List.of(
+                getSecretsCollection(color).getNamespace().getCollectionName(),
+                getChunksCollection(color).getNamespace().getCollectionName());
+        return database.watch(List.of(Aggregates.match(Filters.or(
+                        Filters.in("ns.coll", collections),
+                        Filters.eq("operationType", OperationType.DROP_DATABASE.getValue())))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+    }
+
+    /**
+     * Gets a resume token for the changes made to the secrets and chunks of a color from now on
+     *
+     * @return the resume token, or null if the deployment doesn't support change streams
+     */
+    private BsonDocument getResumeToken(Color color) {
+        try (var cursor = watchSecrets(color).cursor()) {
+            return cursor.getResumeToken();
+        } catch (MongoCommandException e) {
+            // change streams need a replica set
+            return null;
+        }
+    }
+
+    /**
+     * Applies the changes made to the secrets and chunks of the source color since a resume token to the target
+     * collections, re-encrypting them with the target vault. Changes are applied in order, in batches of consecutive
+     * changes to the same collection.
+     *
+     * @return the resume token after the last applied change
+     */
+    private BsonDocument replayChanges(BsonDocument resumeToken, Color sourceColor, Color targetColor,
+                                       MongoCollection<Document> targetSecrets, MongoCollection<Document> targetChunks,
+                                       ClientEncryption targetVault, EncryptOptions encryptOptions) {
+        var secretsName = getSecretsCollection(sourceColor).getNamespace().getCollectionName();
+        try (var cursor = watchSecrets(sourceColor).resumeAfter(resumeToken).cursor()) {
+            var changes = new ArrayList<ChangeStreamDocument<Document>>();
+            var chunks = false;
+            ChangeStreamDocument<Document> change;
+            while ((change = cursor.tryNext()) != null) {
+                switch (change.getOperationType()) {
+                    case INSERT, UPDATE, REPLACE, DELETE -> {
+                    }
+                    case DROP, RENAME, DROP_DATABASE, INVALIDATE -> throw new IllegalStateException(
+                            "The " + sourceColor + " secrets were dropped or renamed during the rotation");
+                    default -> {
+                        continue;
+                    }
+                }
+                var isChunk = !secretsName.equals(change.getNamespace().getCollectionName());
+                if (!changes.isEmpty() && (isChunk != chunks || changes.size() == DEFAULT_BATCH_SIZE)) {
+                    replicate(changes, chunks ? "data" : "secret", sourceColor, targetColor,
+                            chunks ? targetChunks : targetSecrets, targetVault, encryptOptions);
+                    changes.clear();
+                }
+                chunks = isChunk;
+                changes.add(change);
+            }
+            if (!changes.isEmpty()) {
+                replicate(changes, chunks ? "data" : "secret", sourceColor, targetColor,
+                        chunks ? targetChunks : targetSecrets, targetVault, encryptOptions);
+            }
+            return cursor.getResumeToken();
+        }
+    }
+
+    /**
+     * Removes the checkpoint of an unfinished rotation so that the next rotation starts from scratch
+     */
+    public void clearRotationCheckpoint() {
+        getMetadataCollection().deleteOne(Filters.eq(ROTATION_CHECKPOINT_ID));
+    }
+
+    /**
+     * Removes the saved change stream position of sync so that the next sync starts from the current changes
+     */
+    public void clearSyncState() {
+        getMetadataCollection().deleteOne(Filters.eq(SYNC_STATE_ID));
+    }
 
-        // re-create the vault for the inactive color
-        vaultMap.put(inactiveColor, createClientEncryption(inactiveColor));
+    /**
+     * Records a completed batch in the rotation checkpoint.
+     * Batches are checkpointed in the order they were read so every secret before the checkpoint has been rotated.
+     */
+    private long checkpoint(RotatedBatch batch, long count) {
+        var newCount = count + batch.count();
+        getMetadataCollection().updateOne(
+                Filters.eq(ROTATION_CHECKPOINT_ID),
+                Updates.combine(
+                        Updates.set("lastId", batch.lastId()),
+                        Updates.set("count", newCount),
+                        Updates.set("updatedAt", new Date())
+                )
+        );
+        return newCount;
+    }
 
-        // wipe and recreate the inactive key vault
-        initializeKeyVault(inactiveColor);
+    private Future<RotatedBatch> submitRotation(ExecutorService executor, List<Document> batch, MongoCollection<Document> target,
+                                                String field, Color sourceColor, Color targetColor, ClientEncryption targetVault,
+                                                EncryptOptions encryptOptions) {
+        return executor.submit(() -> {
+            var sample = instrumentation.start(Operation.ROTATE_BATCH, targetColor);
+            sample.items(batch.size());
+            try {
+                var replacements = new ArrayList<ReplaceOneModel<Document>>(batch.size());
+                for (Document encDoc : batch) {
+                    var rotatedDoc = reencrypt(encDoc, field, sourceColor, targetColor, targetVault, encryptOptions);
+                    // upsert so that batches replayed after a resume don't fail on duplicate keys
+                    replacements.add(new ReplaceOneModel<>(Filters.eq(rotatedDoc.get("_id")), rotatedDoc, new ReplaceOptions().upsert(true)));
+                }
+                target.bulkWrite(replacements, new BulkWriteOptions().ordered(false));
+                return new RotatedBatch(batch.get(batch.size() - 1).get("_id"), batch.size());
+            } catch (RuntimeException e) {
+                sample.error(e);
+                throw e;
+            } finally {
+                sample.stop();
+            }
+        });
+    }
 
-        // read the active secrets, re-encrypt with the new key and write to the inactive color secrets collection
-        for (Document encDoc : activeCollection.find()) {
-            var decryptedDoc = decrypt(encDoc, activeColor);
-            var rotatedEncDoc = encrypt(decryptedDoc, inactiveColor, encryptOptions);
-            inactiveCollection.insertOne(rotatedEncDoc);
-            count++;
+    /**
+     * Re-encrypts the chunks of large secrets into the target collection. Chunks are not checkpointed,
+     * a resumed rotation re-encrypts all of them and the upserts make that safe.
+     */
+    private void rotateChunks(ExecutorService executor, int parallelism, Color sourceColor, Color targetColor,
+                              MongoCollection<Document> target, ClientEncryption targetVault, EncryptOptions encryptOptions) {
+        // chunks are large so fewer are batched and in flight than for secrets
+        var pending = new ArrayDeque<Future<RotatedBatch>>();
+        var batch = new ArrayList<Document>(CHUNK_BATCH_SIZE);
+        for (Document chunk : getChunksCollection(sourceColor).find().batchSize(CHUNK_BATCH_SIZE)) {
+            batch.add(chunk);
+            if (batch.size() == CHUNK_BATCH_SIZE) {
+                pending.add(submitRotation(executor, batch, target, "data", sourceColor, targetColor, targetVault, encryptOptions));
+                batch = new ArrayList<>(CHUNK_BATCH_SIZE);
+            }
+            if (pending.size() > parallelism) {
+                await(pending.poll());
+            }
+        }
+        if (!batch.isEmpty()) {
+            pending.add(submitRotation(executor, batch, target, "data", sourceColor, targetColor, targetVault, encryptOptions));
+        }
+        pending.forEach(SecretService::await);
+    }
+
+    private record RotatedBatch(Object lastId, int count) {
+    }
+
+    /**
+     * Gets a numeric field of any BSON number type as a long, defaulting to 0
+     */
+    private static long getLong(Document document, String key) {
+        var value = document.get(key, Number.class);
+        return value != null ? value.longValue() : 0;
+    }
+
+    private MongoCollection<Document> getKeyVaultCollection(Color color) {
+        return client
+                .getDatabase(VAULT_DB)
+                .getCollection(color.name().toLowerCase() + VAULT_COLLECTION_SUFFIX);
+    }
+
+    private MongoCollection<Document> getStagingKeyVaultCollection(Color color) {
+        return client
+                .getDatabase(VAULT_DB)
+                .getCollection(color.name().toLowerCase() + VAULT_COLLECTION_SUFFIX + STAGING_SUFFIX);
+    }
+
+    /**
+     * The metadata collection is always read from the primary and with majority read and write concern, so that
+     * an activation is never lost or missed by secret reads routed to secondaries
+     */
+    private MongoCollection<Document> getMetadataCollection() {
+        return client.getDatabase(VAULT_DB)
+                .getCollection(METADATA_COLLECTION)
+                .withReadPreference(ReadPreference.primary())
+                .withReadConcern(ReadConcern.MAJORITY)
+                .withWriteConcern(WriteConcern.MAJORITY);
+    }
+
+    /**
+     * Creates a fingerprint of a master key that does not reveal it
+     *
+     * @param masterKey the master key
+     * @return hex encoded SHA-256 digest of the key
+     */
+    static String fingerprint(byte[] masterKey) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(masterKey));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Waits for a future to complete, rethrowing the cause of any failure so that
+     * callers see the original exception (e.g. a {@link com.mongodb.MongoException}).
+     */
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for task", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Replicates changes made to the active color's secrets into the inactive color until stopped.
+     * <p>
+     * A change stream is tailed on the active secrets and chunks collections and only the changed documents are
+     * re-encrypted with the inactive color's key, so the inactive vault stays in step at the cost of the changes
+     * rather than a full rotation. The resume token is kept in the metadata collection so a restarted sync carries on
+     * where the previous one stopped. Replication stops if the active color changes or a collection is dropped or
+     * renamed.
+     * If the saved position has fallen off the oplog the change stream fails with {@code ChangeStreamHistoryLost},
+     * and {@link #clearSyncState()} lets sync start again from the current changes.
+     *
+     * @param algorithm  encryption algorithm
+     * @param batchSize  maximum number of changes applied per bulk write
+     * @param keepRunning checked between batches, replication stops when it returns false
+     * @return the number of changes replicated
+     */
+    public long sync(String algorithm, int batchSize, BooleanSupplier keepRunning) {
+        assert batchSize > 0 : "batch size must be positive";
+
+        var encryptOptions = new EncryptOptions(algorithm);
+        var activeColor = getActive();
+        var inactiveColor = activeColor.flip();
+        var metadataCollection = getMetadataCollection();
+
+        var secretsName = getSecretsCollection(activeColor).getNamespace().getCollectionName();
+        var changeStream = watchSecrets(activeColor).batchSize(batchSize);
+
+        var state = metadataCollection.find(Filters.eq(SYNC_STATE_ID)).first();
+        if (state != null && inactiveColor.name().equals(state.getString("color")) && state.containsKey("resumeToken")) {
+            changeStream = changeStream.resumeAfter(state.get("resumeToken", Document.class)
+                    .toBsonDocument(BsonDocument.class, mongoClientSettings.getCodecRegistry()));
+        }
+
+        long count = 0;
+        try (var cursor = changeStream.cursor()) {
+            BsonDocument savedToken = null;
+            while (keepRunning.getAsBoolean() && getActive() == activeColor) {
+                // consecutive changes to the same collection are applied together, in order
+                var changes = new ArrayList<ChangeStreamDocument<Document>>();
+                var chunks = false;
+                var stopped = false;
+                int read = 0;
+                ChangeStreamDocument<Document> change;
+                while (read < batchSize && (change = cursor.tryNext()) != null) {
+                    read++;
+                    switch (change.getOperationType()) {
+                        case INSERT, UPDATE, REPLACE, DELETE -> {
+                        }
+                        case DROP, RENAME, DROP_DATABASE, INVALIDATE -> stopped = true;
+                        default -> {
+                            continue;
+                        }
+                    }
+                    if (stopped) {
+                        break;
+                    }
+                    var isChunk = !secretsName.equals(change.getNamespace().getCollectionName());
+                    if (!changes.isEmpty() && isChunk != chunks) {
+                        count += replicate(changes, chunks ? "data" : "secret", activeColor, inactiveColor,
+                                chunks ? getChunksCollection(inactiveColor) : getSecretsCollection(inactiveColor),
+                                getVault(inactiveColor), encryptOptions);
+                        changes.clear();
+                    }
+                    chunks = isChunk;
+                    changes.add(change);
+                }
+                if (!changes.isEmpty()) {
+                    count += replicate(changes, chunks ? "data" : "secret", activeColor, inactiveColor,
+                            chunks ? getChunksCollection(inactiveColor) : getSecretsCollection(inactiveColor),
+                            getVault(inactiveColor), encryptOptions);
+                }
+
+                var resumeToken = cursor.getResumeToken();
+                if (resumeToken != null && !resumeToken.equals(savedToken)) {
+                    metadataCollection.replaceOne(
+                            Filters.eq(SYNC_STATE_ID),
+                            new Document("color", inactiveColor.name())
+                                    .append("resumeToken", resumeToken)
+                                    .append("updatedAt", new Date()),
+                            new ReplaceOptions().upsert(true)
+                    );
+                    savedToken = resumeToken;
+                }
+
+                if (stopped) {
+                    break;
+                }
+            }
         }
 
         return count;
     }
 
+    /**
+     * Re-encrypts a field of the changed documents and applies the changes in order to a target collection
+     */
+    private int replicate(List<ChangeStreamDocument<Document>> changes, String field, Color sourceColor, Color targetColor,
+                          MongoCollection<Document> target, ClientEncryption targetVault, EncryptOptions encryptOptions) {
+        // re-encrypt changed documents in parallel, then apply the changes in order
+        var rotations = new ArrayList<Future<Document>>(changes.size());
+        for (ChangeStreamDocument<Document> change : changes) {
+            var document = change.getFullDocument();
+            rotations.add(document == null ? null : workers.submit(() -> reencrypt(document, field, sourceColor, targetColor, targetVault, encryptOptions)));
+        }
+
+        var writes = new ArrayList<WriteModel<Document>>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            var change = changes.get(i);
+            var filter = Filters.eq("_id", change.getDocumentKey().get("_id"));
+            switch (change.getOperationType()) {
+                case INSERT, UPDATE, REPLACE -> {
+                    // the full document is missing if the secret was deleted since - the delete follows
+                    if (rotations.get(i) != null) {
+                        writes.add(new ReplaceOneModel<>(filter, await(rotations.get(i)), new ReplaceOptions().upsert(true)));
+                    }
+                }
+                case DELETE -> writes.add(new DeleteOneModel<>(filter));
+                default -> {
+                }
+            }
+        }
+
+        if (!writes.isEmpty()) {
+            target.bulkWrite(writes, new BulkWriteOptions().ordered(true));
+        }
+        if (secretCache != null) {
+            changes.stream()
+                    .map(change -> change.getDocumentKey().get("_id"))
+                    .filter(BsonValue::isString)
+                    .forEach(id -> secretCache.invalidate(targetColor, id.asString().getValue()));
+        }
+
+        return writes.size();
+    }
+
+    /**
+     * Gathers vault statistics from collection metadata and {@code $collStats} rather than by scanning secrets,
+     * so it is cheap enough to poll frequently
+     */
     @Override
-    public void info() {
+    public VaultInfo info() {
+        var colors = new EnumMap<Color, VaultInfo.ColorInfo>(Color.class);
+        for (Color color : Color.values()) {
+            var secretsCollection = getSecretsCollection(color);
+            var keyVaultCollection = getKeyVaultCollection(color);
+
+            long dataSize = 0;
+            long storageSize = 0;
+            long indexSize = 0;
+            try {
+                // one document per shard on a sharded cluster
+                for (Document stats : secretsCollection.aggregate(List.of(new Document("$collStats", new Document("storageStats", new Document()))))) {
+                    var storageStats = stats.get("storageStats", new Document());
+                    dataSize += getLong(storageStats, "size");
+                    storageSize += getLong(storageStats, "storageSize");
+                    indexSize += getLong(storageStats, "totalIndexSize");
+                }
+            } catch (MongoCommandException e) {
+                // the collection doesn't exist yet
+            }
+
+            colors.put(color, new VaultInfo.ColorInfo(
+                    secretsCollection.estimatedDocumentCount(),
+                    dataSize,
+                    storageSize,
+                    indexSize,
+                    keyVaultCollection.estimatedDocumentCount(),
+                    keyVaultCollection.countDocuments(Filters.eq("keyAltNames", DATA_KEY_ALT_NAME)) > 0
+            ));
+        }
+
+        var metadataCollection = getMetadataCollection();
+        var meta = metadataCollection.find(Filters.eq(ActiveColorCache.METADATA_ID)).first();
+        var lastRotationColor = meta != null ? meta.getString("lastRotationColor") : null;
 
+        return new VaultInfo(
+                getActive(),
+                colors,
+                meta != null ? meta.getDate("lastRotation") : null,
+                lastRotationColor != null ? Color.valueOf(lastRotationColor) : null,
+                metadataCollection.countDocuments(Filters.eq(ROTATION_CHECKPOINT_ID)) > 0
+        );
+    }
+
+    /**
+     * Compares the secrets of the inactive color with those of the active color without exposing any plaintext.
+     * <p>
+     * The {@code _id} space of the active secrets is split into ranges with {@code $bucketAuto} and the ranges are
+     * compared in parallel. Within a range both colors are decrypted with their own vault and the SHA-256 digests of
+     * the plaintexts are compared; chunked secrets are digested as they are streamed. Secret identifiers are assumed
+     * to be of a single BSON type, as range queries only match values of the bound's type.
+     *
+     * @param partitions  number of ranges, 0 to size them from the number of secrets
+     * @param parallelism number of ranges compared concurrently
+     * @return the discrepancies found
+     */
+    public VerifyResult verify(int partitions, int parallelism) {
+        assert parallelism > 0 : "parallelism must be positive";
+
+        var source = getActive();
+        var sourceCollection = getSecretsCollection(source);
+        if (partitions <= 0) {
+            partitions = (int) Math.max(parallelism * 4L, sourceCollection.estimatedDocumentCount() / VERIFY_PARTITION_SIZE + 1);
+        }
+
+        // the lower bound of each bucket, the first and last ranges are open-ended to catch extra target secrets
+        var bounds = new ArrayList<Object>();
+        for (Document bucket : sourceCollection.aggregate(List.of(
+                Aggregates.bucketAuto("$_id", partitions)))) {
+            bounds.add(bucket.get("_id", Document.class).get("min"));
+        }
+        var ranges = new ArrayList<Bson>();
+        for (int i = 0; i < bounds.size(); i++) {
+            var range = new ArrayList<Bson>(2);
+            if (i > 0) {
+                range.add(Filters.gte("_id", bounds.get(i)));
+            }
+            if (i < bounds.size() - 1) {
+                range.add(Filters.lt("_id", bounds.get(i + 1)));
+            }
+            ranges.add(range.isEmpty() ? Filters.empty() : Filters.and(range));
+        }
+        if (ranges.isEmpty()) {
+            ranges.add(Filters.empty());
+        }
+
+        return verify(source, ranges, false, parallelism);
+    }
+
+    /**
+     * Compares a random sample of the active color's secrets with the inactive color's, a quick spot check for
+     * large vaults. Secrets that only exist in the inactive color are not detected.
+     *
+     * @param sampleSize  number of secrets to compare
+     * @param parallelism number of batches compared concurrently
+     * @return the discrepancies found
+     */
+    public VerifyResult verifySample(int sampleSize, int parallelism) {
+        assert sampleSize > 0 : "sample size must be positive";
+        assert parallelism > 0 : "parallelism must be positive";
+
+        var source = getActive();
+        var ids = new LinkedHashSet<BsonValue>();
+        for (RawBsonDocument document : getRawSecretsCollection(source).aggregate(List.of(
+                Aggregates.sample(sampleSize),
+                Aggregates.project(Projections.include("_id"))))) {
+            ids.add(document.get("_id"));
+        }
+
+        var idList = new ArrayList<>(ids);
+        var batches = new ArrayList<Bson>();
+        for (int i = 0; i < idList.size(); i += READ_CHUNK_SIZE) {
+            batches.add(Filters.in("_id", idList.subList(i, Math.min(i + READ_CHUNK_SIZE, idList.size()))));
+        }
+
+        return verify(source, batches, true, parallelism);
+    }
+
+    private VerifyResult verify(Color source, List<Bson> filters, boolean sampled, int parallelism) {
+        var target = source.flip();
+        var compared = new AtomicLong();
+        var missing = new VerifyResult.Tally();
+        var extra = new VerifyResult.Tally();
+        var mismatched = new VerifyResult.Tally();
+
+        var executor = Executors.newFixedThreadPool(parallelism, daemonThreadFactory("msv-verify"));
+        try {
+            var pending = new ArrayList<Future<?>>(filters.size());
+            for (Bson filter : filters) {
+                pending.add(executor.submit(() -> {
+                    // digests of the target's secrets in the range, then match the source's against them
+                    var targetDigests = new HashMap<BsonValue, byte[]>();
+                    for (RawBsonDocument document : getRawSecretsCollection(target).find(filter)) {
+                        targetDigests.put(document.get("_id"), digest(document, target));
+                    }
+                    for (RawBsonDocument document : getRawSecretsCollection(source).find(filter)) {
+                        var secretId = document.get("_id");
+                        var targetDigest = targetDigests.remove(secretId);
+                        compared.incrementAndGet();
+                        if (targetDigest == null) {
+                            missing.add(toIdString(secretId));
+                        } else if (!MessageDigest.isEqual(digest(document, source), targetDigest)) {
+                            mismatched.add(toIdString(secretId));
+                        }
+                    }
+                    targetDigests.keySet().forEach(secretId -> extra.add(toIdString(secretId)));
+                }));
+            }
+            pending.forEach(SecretService::await);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new VerifyResult(source, target, sampled, compared.get(),
+                missing.toDiscrepancy(), extra.toDiscrepancy(), mismatched.toDiscrepancy());
+    }
+
+    /**
+     * Digests the decrypted contents of a secret, zeroing the plaintext afterwards
+     */
+    private byte[] digest(RawBsonDocument document, Color color) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (document.containsKey("secret")) {
+            var plainText = toSecretBytes(decryptValue(document.getBinary("secret"), color));
+            try {
+                return sha256.digest(plainText);
+            } finally {
+                Arrays.fill(plainText, (byte) 0);
+            }
+        }
+        if (document.containsKey("chunked")) {
+            readChunked(toIdString(document.get("_id")), color, new DigestOutputStream(OutputStream.nullOutputStream(), sha256));
+        }
+        return sha256.digest();
+    }
+
+    private static String toIdString(BsonValue secretId) {
+        return secretId.isString() ? secretId.asString().getValue() : secretId.toString();
     }
 
     public byte[] generateMasterKey() {
@@ -213,27 +1802,70 @@ public class SecretService implements ISecretService {
         for (Color color : Color.values()) {
             initializeKeyVault(color);
             getSecretsCollection(color).drop();
+            getChunksCollection(color).drop();
         }
         activate(activeVault);
     }
 
+    /**
+     * Starts refreshing the snapshot in the background, if one is configured.
+     * Until then reads fall back to the snapshot as it was on disk.
+     */
+    public void start() {
+        if (snapshotRefresher != null) {
+            snapshotRefresher.scheduleWithFixedDelay(() -> {
+                try {
+                    refreshSnapshot();
+                } catch (RuntimeException e) {
+                    // keep serving the existing snapshot, the next refresh tries again
+                }
+            }, 0, snapshotRefreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Pre-fetches and decrypts the data key of every vault so the first real request doesn't pay for it
+     */
+    public void warmUp() {
+        for (Color color : masterKeyMap.keySet()) {
+            warmUp(color);
+        }
+    }
+
+    /**
+     * Pre-fetches and decrypts the data key of a vault so the first real request doesn't pay for it.
+     * The decrypted data key is held in the libmongocrypt key cache.
+     *
+     * @param color the color of the vault to warm up
+     */
+    public void warmUp(Color color) {
+        encrypt("", color, new EncryptOptions(DEFAULT_ALGORITHM));
+    }
+
+    private ClientEncryption getVault(Color color) {
+        return vaultMap.computeIfAbsent(color, this::createClientEncryption);
+    }
+
     private ClientEncryption createClientEncryption(Color color) {
         assert masterKeyMap.containsKey(color) : "No master key found for color " + color.name();
+        return createClientEncryption(getKeyVaultNamespace(color), masterKeyMap.get(color));
+    }
+
+    private ClientEncryption createClientEncryption(String keyVaultNamespace, byte[] masterKey) {
         ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
                 .keyVaultMongoClientSettings(mongoClientSettings)
-                .keyVaultNamespace(getKeyVaultNamespace(color))
-                .kmsProviders(getKmsProviders(masterKeyMap.get(color)))
+                .keyVaultNamespace(keyVaultNamespace)
+                .kmsProviders(getKmsProviders(masterKey))
                 .build();
         return ClientEncryptions.create(clientEncryptionSettings);
     }
 
     private void initializeKeyVault(Color color) {
-        assert vaultMap.containsKey(color) : color + " not found in vault map";
-
-        MongoCollection<Document> keyVaultCollection = client
-                .getDatabase(VAULT_DB)
-                .getCollection(color.name().toLowerCase() + VAULT_COLLECTION_SUFFIX);
+        assert masterKeyMap.containsKey(color) : color + " not found in master key map";
+        initializeKeyVault(getKeyVaultCollection(color), getVault(color));
+    }
 
+    private void initializeKeyVault(MongoCollection<Document> keyVaultCollection, ClientEncryption vault) {
         keyVaultCollection.drop();
         IndexOptions indexOpts = new IndexOptions()
                 .partialFilterExpression(new Document("keyAltNames", new Document("$exists", true)))
@@ -241,7 +1873,7 @@ public class SecretService implements ISecretService {
 
         keyVaultCollection.createIndex(ascending("keyAltNames"), indexOpts);
 
-        createDataKey(vaultMap.get(color));
+        createDataKey(vault);
     }
 
     private void createDataKey(ClientEncryption clientEncryption) {
@@ -249,7 +1881,7 @@ public class SecretService implements ISecretService {
         clientEncryption.createDataKey("local", options);
     }
 
-    private static Map<String, Map<String, Object>> getKmsProviders(byte[] masterKey) {
+    static Map<String, Map<String, Object>> getKmsProviders(byte[] masterKey) {
         return new HashMap<>() {{
             put("local", new HashMap<>() {{
                 put("key", masterKey);
@@ -257,7 +1889,25 @@ public class SecretService implements ISecretService {
         }};
     }
 
-    private static String getKeyVaultNamespace(Color color) {
+    static String getKeyVaultNamespace(Color color) {
         return VAULT_DB + "." + color.name().toLowerCase() + VAULT_COLLECTION_SUFFIX;
     }
+
+    @Override
+    public void close() {
+        if (snapshotRefresher != null) {
+            snapshotRefresher.shutdownNow();
+            snapshot.close();
+        }
+        activeColorCache.close();
+        if (secretCache != null) {
+            secretCache.clear();
+        }
+        workers.shutdownNow();
+        if (hedgers != null) {
+            hedgers.shutdownNow();
+        }
+        vaultMap.values().forEach(ClientEncryption::close);
+        client.close();
+    }
 }
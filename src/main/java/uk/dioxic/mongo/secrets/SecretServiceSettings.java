@@ -0,0 +1,218 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.ReadPreference;
+import uk.dioxic.mongo.secrets.metrics.SecretMetrics;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Tuning settings for {@link SecretService}
+ */
+public class SecretServiceSettings {
+
+    private final Duration activeColorMaxStaleness;
+    private final boolean activeColorChangeStream;
+    private final int secretCacheMaxSize;
+    private final Duration secretCacheTtl;
+    private final SecretMetrics metrics;
+    private final Path snapshotPath;
+    private final Duration snapshotMaxStaleness;
+    private final Duration snapshotRefreshInterval;
+    private final ReadPreference secretReadPreference;
+    private final Duration hedgeDelay;
+
+    private SecretServiceSettings(Builder builder) {
+        this.activeColorMaxStaleness = builder.activeColorMaxStaleness;
+        this.activeColorChangeStream = builder.activeColorChangeStream;
+        this.secretCacheMaxSize = builder.secretCacheMaxSize;
+        this.secretCacheTtl = builder.secretCacheTtl;
+        this.metrics = builder.metrics;
+        this.snapshotPath = builder.snapshotPath;
+        this.snapshotMaxStaleness = builder.snapshotMaxStaleness;
+        this.snapshotRefreshInterval = builder.snapshotRefreshInterval;
+        this.secretReadPreference = builder.secretReadPreference;
+        this.hedgeDelay = builder.hedgeDelay;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The maximum time a cached active Color is used before it is re-read from the metadata collection.
+     * Only applies when no change stream is open on the metadata collection.
+     * A zero duration disables caching.
+     *
+     * @return max staleness of the cached active Color
+     */
+    public Duration getActiveColorMaxStaleness() {
+        return activeColorMaxStaleness;
+    }
+
+    /**
+     * Whether a change stream is used to push active Color changes to the cache.
+     * Falls back to polling if the deployment does not support change streams.
+     *
+     * @return true if a change stream should be opened
+     */
+    public boolean isActiveColorChangeStream() {
+        return activeColorChangeStream;
+    }
+
+    /**
+     * The maximum number of decrypted secrets held in the secret cache.
+     * A size of zero disables the cache.
+     *
+     * @return max number of cached secrets
+     */
+    public int getSecretCacheMaxSize() {
+        return secretCacheMaxSize;
+    }
+
+    /**
+     * The time a decrypted secret is held in the secret cache before it must be read again
+     *
+     * @return time to live of cached secrets
+     */
+    public Duration getSecretCacheTtl() {
+        return secretCacheTtl;
+    }
+
+    /**
+     * The metrics facade that operation latencies, counts, errors and bytes are recorded to.
+     * Operations are also reported as JFR events when the {@code uk.dioxic.mongo.secrets.SecretOperation} event is enabled.
+     *
+     * @return the metrics facade
+     */
+    public SecretMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The file holding an encrypted snapshot of the active color's secrets, used to serve reads at startup and
+     * while the cluster is unreachable. It is refreshed once {@link SecretService#start()} is called. No snapshot is
+     * kept when null.
+     *
+     * @return the snapshot file, or null
+     */
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * The maximum age of a snapshot that reads may be served from
+     *
+     * @return max staleness of the snapshot
+     */
+    public Duration getSnapshotMaxStaleness() {
+        return snapshotMaxStaleness;
+    }
+
+    /**
+     * The time between snapshot refreshes
+     *
+     * @return snapshot refresh interval
+     */
+    public Duration getSnapshotRefreshInterval() {
+        return snapshotRefreshInterval;
+    }
+
+    /**
+     * The read preference for secret reads, e.g. {@code ReadPreference.nearest(90, TimeUnit.SECONDS)} to spread reads
+     * over the replica set with a staleness bound. The metadata holding the active Color is always read from the
+     * primary with majority read concern. Uses the read preference of the connection string when null.
+     *
+     * @return read preference for secrets, or null
+     */
+    public ReadPreference getSecretReadPreference() {
+        return secretReadPreference;
+    }
+
+    /**
+     * The time a secret query waits for a response before a second, hedged query is sent; a query that fails sooner
+     * is hedged straight away. The first successful response is used. A zero duration disables hedging.
+     *
+     * @return hedge delay
+     */
+    public Duration getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public static class Builder {
+        private Duration activeColorMaxStaleness = Duration.ofSeconds(5);
+        private boolean activeColorChangeStream = true;
+        private int secretCacheMaxSize = 0;
+        private Duration secretCacheTtl = Duration.ofMinutes(1);
+        private SecretMetrics metrics = SecretMetrics.NOOP;
+        private Path snapshotPath;
+        private Duration snapshotMaxStaleness = Duration.ofHours(1);
+        private Duration snapshotRefreshInterval = Duration.ofMinutes(1);
+        private ReadPreference secretReadPreference;
+        private Duration hedgeDelay = Duration.ZERO;
+
+        private Builder() {
+        }
+
+        public Builder activeColorMaxStaleness(Duration activeColorMaxStaleness) {
+            assert activeColorMaxStaleness != null && !activeColorMaxStaleness.isNegative() : "max staleness must not be negative";
+            this.activeColorMaxStaleness = activeColorMaxStaleness;
+            return this;
+        }
+
+        public Builder activeColorChangeStream(boolean activeColorChangeStream) {
+            this.activeColorChangeStream = activeColorChangeStream;
+            return this;
+        }
+
+        public Builder secretCacheMaxSize(int secretCacheMaxSize) {
+            assert secretCacheMaxSize >= 0 : "cache size must not be negative";
+            this.secretCacheMaxSize = secretCacheMaxSize;
+            return this;
+        }
+
+        public Builder secretCacheTtl(Duration secretCacheTtl) {
+            assert secretCacheTtl != null && !secretCacheTtl.isNegative() && !secretCacheTtl.isZero() : "cache ttl must be positive";
+            this.secretCacheTtl = secretCacheTtl;
+            return this;
+        }
+
+        public Builder metrics(SecretMetrics metrics) {
+            assert metrics != null : "metrics must not be null";
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder snapshotPath(Path snapshotPath) {
+            this.snapshotPath = snapshotPath;
+            return this;
+        }
+
+        public Builder snapshotMaxStaleness(Duration snapshotMaxStaleness) {
+            assert snapshotMaxStaleness != null && !snapshotMaxStaleness.isNegative() && !snapshotMaxStaleness.isZero() : "snapshot max staleness must be positive";
+            this.snapshotMaxStaleness = snapshotMaxStaleness;
+            return this;
+        }
+
+        public Builder snapshotRefreshInterval(Duration snapshotRefreshInterval) {
+            assert snapshotRefreshInterval != null && !snapshotRefreshInterval.isNegative() && !snapshotRefreshInterval.isZero() : "snapshot refresh interval must be positive";
+            this.snapshotRefreshInterval = snapshotRefreshInterval;
+            return this;
+        }
+
+        public Builder secretReadPreference(ReadPreference secretReadPreference) {
+            this.secretReadPreference = secretReadPreference;
+            return this;
+        }
+
+        public Builder hedgeDelay(Duration hedgeDelay) {
+            assert hedgeDelay != null && !hedgeDelay.isNegative() : "hedge delay must not be negative";
+            this.hedgeDelay = hedgeDelay;
+            return this;
+        }
+
+        public SecretServiceSettings build() {
+            return new SecretServiceSettings(this);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package uk.dioxic.mongo.secrets;
+
+import com.mongodb.crypt.capi.MongoCrypt;
+import com.mongodb.crypt.capi.MongoCryptContext;
+import com.mongodb.crypt.capi.MongoCryptOptions;
+import com.mongodb.crypt.capi.MongoCrypts;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk, memory-mapped copy of the encrypted secrets of one color.
+ * <p>
+ * The file holds a header, the encrypted secrets as {@code [id length][id][ciphertext length][ciphertext]} records
+ * and an index of record positions sorted by id, which is binary searched in place. The data key document of the
+ * color's key vault is stored with the secrets so they can be decrypted with the master key while the cluster is
+ * unreachable. Nothing in the file is plaintext.
+ * <p>
+ * A refresh writes a new file next to the current one and renames it into place, so readers never see a partial file.
+ */
+class SecretSnapshot implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D535653; // MSVS
+    private static final int VERSION = 1;
+
+    private final Path path;
+    private volatile Mapped mapped;
+    private MongoCrypt crypt;
+    private byte[] cryptMasterKey;
+
+    private SecretSnapshot(Path path, Mapped mapped) {
+        this.path = path;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Opens the snapshot at a path, which is empty until the first refresh if the file doesn't exist
+     *
+     * @param path the snapshot file
+     * @return the snapshot
+     */
+    static SecretSnapshot open(Path path) {
+        try {
+            return new SecretSnapshot(path, Files.exists(path) ? Mapped.map(path) : null);
+        } catch (IOException | RuntimeException e) {
+            // an unreadable snapshot is replaced by the next refresh
+            return new SecretSnapshot(path, null);
+        }
+    }
+
+    /**
+     * Checks whether the snapshot holds data refreshed within the max staleness
+     *
+     * @param maxStaleness the maximum age of the data
+     * @return true if the snapshot can be used to serve reads
+     */
+    boolean isUsable(Duration maxStaleness) {
+        var current = mapped;
+        return current != null && Duration.between(current.refreshedAt, Instant.now()).compareTo(maxStaleness) <= 0;
+    }
+
+    /**
+     * @return the color of the snapshot, or null if it is empty
+     */
+    Color getColor() {
+        var current = mapped;
+        return current != null ? current.color : null;
+    }
+
+    /**
+     * @return the resume token to refresh the snapshot from, or null if a full refresh is needed
+     */
+    BsonDocument getResumeToken() {
+        var current = mapped;
+        return current != null ? current.resumeToken : null;
+    }
+
+    /**
+     * Looks up the ciphertext of a secret
+     *
+     * @param secretId secret identifier
+     * @return the ciphertext, or null if the snapshot doesn't hold the secret
+     */
+    BsonBinary find(String secretId) {
+        var current = mapped;
+        if (current == null) {
+            return null;
+        }
+        var position = current.find(secretId.getBytes(StandardCharsets.UTF_8));
+        if (position < 0) {
+            return null;
+        }
+        var buffer = current.buffer;
+        var idLength = buffer.getInt(position);
+        var dataPosition = position + 4 + idLength;
+        var data = new byte[buffer.getInt(dataPosition)];
+        buffer.get(dataPosition + 4, data);
+        return new BsonBinary(BsonBinarySubType.ENCRYPTED, data);
+    }
+
+    /**
+     * Reads every secret, used to apply changes for an incremental refresh
+     *
+     * @return ciphertext keyed by secret identifier
+     */
+    Map<String, byte[]> readAll() {
+        var current = mapped;
+        var entries = new HashMap<String, byte[]>();
+        if (current == null) {
+            return entries;
+        }
+        var buffer = current.buffer;
+        for (int i = 0; i < current.count; i++) {
+            var position = (int) buffer.getLong(current.indexOffset + i * 8);
+            var id = new byte[buffer.getInt(position)];
+            buffer.get(position + 4, id);
+            var data = new byte[buffer.getInt(position + 4 + id.length)];
+            buffer.get(position + 8 + id.length, data);
+            entries.put(new String(id, StandardCharsets.UTF_8), data);
+        }
+        return entries;
+    }
+
+    /**
+     * Decrypts a ciphertext from the snapshot without contacting the cluster, using the stored data key
+     *
+     * @param cipherText the ciphertext
+     * @param masterKey  the master key of the snapshot's color
+     * @return the decrypted value
+     */
+    synchronized BsonValue decrypt(BsonBinary cipherText, byte[] masterKey) {
+        var current = mapped;
+        assert current != null : "snapshot is empty";
+
+        if (crypt == null || !Arrays.equals(cryptMasterKey, masterKey)) {
+            if (crypt != null) {
+                crypt.close();
+            }
+            crypt = MongoCrypts.create(MongoCryptOptions.builder()
+                    .kmsProviderOptions(new BsonDocument("local", new BsonDocument("key", new BsonBinary(masterKey))))
+                    .build());
+            cryptMasterKey = masterKey.clone();
+        }
+
+        try (MongoCryptContext context = crypt.createExplicitDecryptionContext(new BsonDocument("v", cipherText))) {
+            while (context.getState() != MongoCryptContext.State.READY) {
+                switch (context.getState()) {
+                    case NEED_MONGO_KEYS -> {
+                        context.addMongoOperationResult(current.keyDocument);
+                        context.completeMongoOperation();
+                    }
+                    case NEED_KMS -> {
+                        // the local KMS provider never needs KMS requests
+                        if (context.nextKeyDecryptor() != null) {
+                            throw new IllegalStateException("snapshot decryption needs an external KMS");
+                        }
+                        context.completeKeyDecryptors();
+                    }
+                    default -> throw new IllegalStateException("unexpected decryption state " + context.getState());
+                }
+            }
+            return context.finish().get("v");
+        }
+    }
+
+    /**
+     * Replaces the snapshot
+     *
+     * @param color       the color of the secrets
+     * @param resumeToken change stream position the secrets are current to, may be null
+     * @param keyDocument the data key document of the color's key vault
+     * @param entries     ciphertext keyed by secret identifier
+     */
+    void write(Color color, BsonDocument resumeToken, BsonDocument keyDocument, Map<String, byte[]> entries) {
+        var tokenBytes = resumeToken != null ? toBytes(resumeToken) : new byte[0];
+        var keyBytes = toBytes(keyDocument);
+
+        var ids = new ArrayList<byte[]>(entries.size());
+        var data = new ArrayList<byte[]>(entries.size());
+        entries.keySet().stream()
+                .map(id -> id.getBytes(StandardCharsets.UTF_8))
+                .sorted(Arrays::compareUnsigned)
+                .forEach(id -> {
+                    ids.add(id);
+                    data.add(entries.get(new String(id, StandardCharsets.UTF_8)));
+                });
+
+        // record positions are known up front, so the file is written in a single pass
+        long position = 4 + 4 + 1 + 8 + 4 + tokenBytes.length + 4 + keyBytes.length + 4 + 8;
+        var positions = new long[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            positions[i] = position;
+            position += 4 + ids.get(i).length + 4 + data.get(i).length;
+        }
+        var indexOffset = position;
+        assert indexOffset + positions.length * 8L <= Integer.MAX_VALUE : "snapshot larger than 2GB";
+
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            var temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(color.ordinal());
+                out.writeLong(Instant.now().toEpochMilli());
+                out.writeInt(tokenBytes.length);
+                out.write(tokenBytes);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(ids.size());
+                out.writeLong(indexOffset);
+                for (int i = 0; i < ids.size(); i++) {
+                    out.writeInt(ids.get(i).length);
+                    out.write(ids.get(i));
+                    out.writeInt(data.get(i).length);
+                    out.write(data.get(i));
+                }
+                for (long recordPosition : positions) {
+                    out.writeLong(recordPosition);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            mapped = Mapped.map(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] toBytes(BsonDocument document) {
+        var raw = new RawBsonDocument(document, new BsonDocumentCodec());
+        var buffer = raw.getByteBuffer();
+        var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (crypt != null) {
+            crypt.close();
+            crypt = null;
+        }
+        mapped = null;
+    }
+
+    /**
+     * A mapped snapshot file
+     */
+    private record Mapped(MappedByteBuffer buffer, Color color, Instant refreshedAt, BsonDocument resumeToken,
+                          BsonDocument keyDocument, int count, int indexOffset) {
+
+        static Mapped map(Path path) throws IOException {
+            MappedByteBuffer buffer;
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a secret snapshot: " + path);
+            }
+            var color = Color.values()[buffer.get(8)];
+            var refreshedAt = Instant.ofEpochMilli(buffer.getLong(9));
+            var position = 17;
+            var tokenLength = buffer.getInt(position);
+            var resumeToken = tokenLength > 0 ? readDocument(buffer, position + 4, tokenLength) : null;
+            position += 4 + tokenLength;
+            var keyLength = buffer.getInt(position);
+            var keyDocument = readDocument(buffer, position + 4, keyLength);
+            position += 4 + keyLength;
+            return new Mapped(buffer, color, refreshedAt, resumeToken, keyDocument,
+                    buffer.getInt(position), (int) buffer.getLong(position + 4));
+        }
+
+        private static BsonDocument readDocument(MappedByteBuffer buffer, int position, int length) {
+            var bytes = new byte[length];
+            buffer.get(position, bytes);
+            return new RawBsonDocument(bytes);
+        }
+
+        /**
+         * Binary searches the index for a secret
+         *
+         * @return the position of the secret's record, or -1 if it isn't in the snapshot
+         */
+        int find(byte[] id) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                var mid = (low + high) >>> 1;
+                var position = (int) buffer.getLong(indexOffset + mid * 8);
+                var cmp = compare(position, id);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return position;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Compares the id of the record at a position with an id, byte by byte as unsigned values
+         */
+        private int compare(int position, byte[] id) {
+            var length = buffer.getInt(position);
+            var common = Math.min(length, id.length);
+            for (int i = 0; i < common; i++) {
+                var cmp = Byte.compareUnsigned(buffer.get(position + 4 + i), id[i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(length, id.length);
+        }
+    }
+}
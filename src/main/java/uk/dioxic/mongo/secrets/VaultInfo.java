@@ -0,0 +1,93 @@
+package uk.dioxic.mongo.secrets;
+
+import org.bson.Document;
+
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Statistics about the vaults, gathered from server-side metadata without reading any secrets
+ *
+ * @param active             the active Color
+ * @param colors             statistics for each Color
+ * @param lastRotation       when a rotation last completed, may be null
+ * @param lastRotationColor  the Color that was last rotated, may be null
+ * @param rotationInProgress whether an unfinished rotation checkpoint exists
+ */
+public record VaultInfo(Color active, Map<Color, ColorInfo> colors, Date lastRotation, Color lastRotationColor,
+                        boolean rotationInProgress) {
+
+    /**
+     * Statistics for a single Color
+     *
+     * @param secretCount    estimated number of secrets
+     * @param dataSize       uncompressed size of the secrets in bytes
+     * @param storageSize    storage allocated to the secrets collection in bytes
+     * @param indexSize      total size of the secrets collection indexes in bytes
+     * @param keyCount       number of data keys in the key vault
+     * @param dataKeyPresent whether the key vault holds the data key used for secrets
+     */
+    public record ColorInfo(long secretCount, long dataSize, long storageSize, long indexSize, long keyCount,
+                            boolean dataKeyPresent) {
+
+        Document toDocument() {
+            return new Document("secretCount", secretCount)
+                    .append("dataSize", dataSize)
+                    .append("storageSize", storageSize)
+                    .append("indexSize", indexSize)
+                    .append("keyCount", keyCount)
+                    .append("dataKeyPresent", dataKeyPresent);
+        }
+
+        static ColorInfo fromDocument(Document document) {
+            return new ColorInfo(
+                    document.get("secretCount", Number.class).longValue(),
+                    document.get("dataSize", Number.class).longValue(),
+                    document.get("storageSize", Number.class).longValue(),
+                    document.get("indexSize", Number.class).longValue(),
+                    document.get("keyCount", Number.class).longValue(),
+                    document.getBoolean("dataKeyPresent")
+            );
+        }
+    }
+
+    /**
+     * Checks whether the inactive vault appears to hold the same secrets as the active vault.
+     * This compares estimated counts only; use a full verification to compare contents.
+     *
+     * @return true if every Color has its data key and the same number of secrets and no rotation is in progress
+     */
+    public boolean inSync() {
+        if (rotationInProgress) {
+            return false;
+        }
+        var activeInfo = colors.get(active);
+        return colors.values().stream()
+                .allMatch(info -> info.dataKeyPresent() && info.secretCount() == activeInfo.secretCount());
+    }
+
+    public Document toDocument() {
+        var colorDocument = new Document();
+        colors.forEach((color, info) -> colorDocument.append(color.name(), info.toDocument()));
+        return new Document("active", active.name())
+                .append("colors", colorDocument)
+                .append("lastRotation", lastRotation)
+                .append("lastRotationColor", lastRotationColor != null ? lastRotationColor.name() : null)
+                .append("rotationInProgress", rotationInProgress);
+    }
+
+    public static VaultInfo fromDocument(Document document) {
+        var colors = new EnumMap<Color, ColorInfo>(Color.class);
+        document.get("colors", Document.class)
+                .forEach((color, info) -> colors.put(Color.valueOf(color), ColorInfo.fromDocument((Document) info)));
+        var lastRotationColor = document.getString("lastRotationColor");
+        return new VaultInfo(
+                Color.valueOf(document.getString("active")),
+                colors,
+                document.getDate("lastRotation"),
+                lastRotationColor != null ? Color.valueOf(lastRotationColor) : null,
+                document.getBoolean("rotationInProgress")
+        );
+    }
+}
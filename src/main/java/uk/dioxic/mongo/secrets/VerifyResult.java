@@ -0,0 +1,64 @@
+package uk.dioxic.mongo.secrets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of comparing the secrets of the inactive color with those of the active color
+ *
+ * @param source     the color compared against, normally the active color
+ * @param target     the color being verified
+ * @param sampled    whether only a sample of the source secrets was compared
+ * @param compared   the number of source secrets compared
+ * @param missing    secrets of the source that the target doesn't have
+ * @param extra      secrets of the target that the source doesn't have, not detected when sampling
+ * @param mismatched secrets whose decrypted contents differ
+ */
+public record VerifyResult(Color source, Color target, boolean sampled, long compared,
+                           Discrepancy missing, Discrepancy extra, Discrepancy mismatched) {
+
+    /**
+     * Maximum number of secret identifiers kept for each kind of discrepancy
+     */
+    public static final int MAX_REPORTED_IDS = 100;
+
+    /**
+     * Checks whether the target holds the same secrets as the source
+     *
+     * @return true if no discrepancies were found
+     */
+    public boolean consistent() {
+        return missing.count() == 0 && extra.count() == 0 && mismatched.count() == 0;
+    }
+
+    /**
+     * A kind of discrepancy
+     *
+     * @param count the number of secrets affected
+     * @param ids   identifiers of the first {@value #MAX_REPORTED_IDS} secrets affected
+     */
+    public record Discrepancy(long count, List<String> ids) {
+    }
+
+    /**
+     * Thread-safe tally of one kind of discrepancy
+     */
+    static class Tally {
+        private final List<String> ids = new ArrayList<>();
+        private long count;
+
+        synchronized void add(String secretId) {
+            count++;
+            if (ids.size() < MAX_REPORTED_IDS) {
+                ids.add(secretId);
+            }
+        }
+
+        synchronized Discrepancy toDiscrepancy() {
+            var sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            return new Discrepancy(count, List.copyOf(sorted));
+        }
+    }
+}
@@ -4,7 +4,6 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import uk.dioxic.mongo.secrets.Color;
-import uk.dioxic.mongo.secrets.SecretService;
 
 import java.util.concurrent.Callable;
 
@@ -17,9 +16,12 @@ public class ActivateCommand implements Callable<Integer> {
     @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
     private String uri;
 
+    @Option(names = {"--no-daemon"}, description = "Don't use a running msv daemon")
+    private boolean noDaemon;
+
     @Override
     public Integer call() {
-        var secretService = new SecretService(uri, "passwordBLUE", "passwordGREEN");
+        var secretService = Services.connect(uri, "passwordBLUE", "passwordGREEN", !noDaemon);
         secretService.activate(color);
         System.out.println(color + " activated");
         return 0;
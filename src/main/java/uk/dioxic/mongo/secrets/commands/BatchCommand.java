@@ -0,0 +1,71 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+@Command(name = "batch", description = "Run a script of read, write, activate, rotate and info commands on one connection")
+public class BatchCommand implements Callable<Integer> {
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = {"-f", "--file"}, required = true, description = "The script to run, one command per line ('-' for stdin)")
+    private String file;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = {"--pipeline"}, description = "Number of consecutive reads or writes to run concurrently (default: ${DEFAULT-VALUE})", defaultValue = "1")
+    private int pipeline;
+
+    @Option(names = {"--keep-going"}, description = "Continue after a command fails")
+    private boolean keepGoing;
+
+    @Override
+    public Integer call() throws Exception {
+        if (pipeline < 1) {
+            System.err.println("--pipeline must be at least 1");
+            return 2;
+        }
+
+        return Services.inSession(new SecretService(uri, blueKey, greenKey), () -> {
+            try (var reader = file.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in))
+                    : Files.newBufferedReader(Path.of(file));
+                 var runner = new ScriptRunner(spec.root().userObject().getClass(), pipeline)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    runner.execute(line);
+                    if (!keepGoing && runner.failures() > 0) {
+                        System.err.println("Stopped at line " + lineNumber);
+                        runner.flush();
+                        return 1;
+                    }
+                }
+                var failures = runner.flush();
+                if (failures > 0) {
+                    System.err.println(failures + " command(s) failed");
+                    return 1;
+                }
+            }
+            return 0;
+        });
+    }
+}
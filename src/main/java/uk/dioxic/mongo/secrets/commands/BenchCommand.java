@@ -0,0 +1,215 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+@Command(name = "bench", description = "Measure throughput and latency of a mix of read, write and activate operations")
+public class BenchCommand implements Callable<Integer> {
+
+    private static final String KEY_PREFIX = "bench-";
+    private static final int POPULATE_BATCH_SIZE = 1000;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string, use a dedicated database (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017/msv_bench")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = { "--algorithm"}, description = "The encryption algorithm (default: ${DEFAULT-VALUE})", defaultValue = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")
+    private String algorithm;
+
+    @Option(names = {"--workers"}, description = "Number of concurrent workers (default: ${DEFAULT-VALUE})", defaultValue = "16")
+    private int workers;
+
+    @Option(names = {"--mix"}, split = ",", description = "Operation weights (default: ${DEFAULT-VALUE})", defaultValue = "read=90,write=10")
+    private Map<String, Integer> mix;
+
+    @Option(names = {"--rate"}, description = "Target operations per second across all workers, 0 for closed loop (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private double rate;
+
+    @Option(names = {"--duration"}, description = "Seconds to measure for (default: ${DEFAULT-VALUE})", defaultValue = "30")
+    private int duration;
+
+    @Option(names = {"--warmup"}, description = "Seconds to run before measuring (default: ${DEFAULT-VALUE})", defaultValue = "5")
+    private int warmup;
+
+    @Option(names = {"--keys"}, description = "Number of secrets in the key space (default: ${DEFAULT-VALUE})", defaultValue = "10000")
+    private int keys;
+
+    @Option(names = {"--secret-size"}, description = "Size of each secret in characters (default: ${DEFAULT-VALUE})", defaultValue = "64")
+    private int secretSize;
+
+    @Option(names = {"--hot-keys"}, description = "Fraction of the key space that is hot (default: ${DEFAULT-VALUE})", defaultValue = "0.01")
+    private double hotKeys;
+
+    @Option(names = {"--hot-traffic"}, description = "Fraction of operations on hot keys, 0 for uniform access (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private double hotTraffic;
+
+    @Option(names = {"--skip-populate"}, description = "Don't write the key space before starting")
+    private boolean skipPopulate;
+
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final Map<String, LongAdder> errors = new HashMap<>();
+
+    @Override
+    public Integer call() throws Exception {
+        for (String operation : mix.keySet()) {
+            if (!operation.equals("read") && !operation.equals("write") && !operation.equals("activate")) {
+                System.err.println("Unknown operation in --mix: " + operation + " (read, write or activate)");
+                return 2;
+            }
+            // latencies in microseconds, auto-resizing
+            latencies.put(operation, new ConcurrentHistogram(3));
+            errors.put(operation, new LongAdder());
+        }
+
+        var secretService = Services.local(uri, blueKey, greenKey);
+        var secret = "x".repeat(secretSize);
+        if (!skipPopulate) {
+            System.out.println("Writing " + keys + " secrets...");
+            var batch = new HashMap<String, String>();
+            for (int i = 0; i < keys; i++) {
+                batch.put(KEY_PREFIX + i, secret);
+                if (batch.size() == POPULATE_BATCH_SIZE || i == keys - 1) {
+                    secretService.writeAll(batch, algorithm);
+                    batch.clear();
+                }
+            }
+        }
+
+        System.out.printf("Running %s with %d workers%s for %ds after %ds warmup...%n", mix, workers,
+                rate > 0 ? " at " + rate + " ops/s" : "", duration, warmup);
+        var measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+        var deadline = measureStart + TimeUnit.SECONDS.toNanos(duration);
+
+        // one platform thread per worker: msv is compiled with --release 17, where virtual threads aren't available,
+        // and each worker only has one request in flight so the pool is sized by --workers anyway
+        var executor = Executors.newFixedThreadPool(workers);
+        try {
+            var pending = new ArrayList<Future<?>>();
+            for (int i = 0; i < workers; i++) {
+                var worker = i;
+                pending.add(executor.submit(() -> run(secretService, secret, worker, measureStart, deadline)));
+            }
+            for (Future<?> future : pending) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report();
+        return 0;
+    }
+
+    /**
+     * Runs operations until the deadline. At a target rate each operation has an intended start time and its
+     * latency is measured from then, so a stalled server isn't hidden by workers backing off (coordinated omission).
+     */
+    private void run(SecretService secretService, String secret, int worker, long measureStart, long deadline) {
+        var random = ThreadLocalRandom.current();
+        var operations = mix.keySet().toArray(String[]::new);
+        var weights = new int[operations.length];
+        int totalWeight = 0;
+        for (int i = 0; i < operations.length; i++) {
+            totalWeight += mix.get(operations[i]);
+            weights[i] = totalWeight;
+        }
+
+        var intervalNanos = rate > 0 ? (long) (workers * 1_000_000_000d / rate) : 0;
+        var next = System.nanoTime() + (intervalNanos * worker) / workers;
+
+        while (true) {
+            long start;
+            if (intervalNanos > 0) {
+                start = next;
+                next += intervalNanos;
+                var wait = start - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                start = System.nanoTime();
+            }
+            if (start - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            var choice = random.nextInt(totalWeight);
+            var index = 0;
+            while (weights[index] <= choice) {
+                index++;
+            }
+            var operation = operations[index];
+
+            var failed = false;
+            try {
+                switch (operation) {
+                    case "read" -> secretService.read(pickKey(random));
+                    case "write" -> secretService.write(pickKey(random), secret, algorithm);
+                    // re-activating the active color measures the metadata write without switching colors
+                    case "activate" -> secretService.activate(secretService.getActive());
+                    default -> throw new IllegalStateException(operation);
+                }
+            } catch (RuntimeException | AssertionError e) {
+                failed = true;
+            }
+
+            if (start - measureStart >= 0) {
+                latencies.get(operation).recordValue(Math.max(0, (System.nanoTime() - start) / 1000));
+                if (failed) {
+                    errors.get(operation).increment();
+                }
+            }
+        }
+    }
+
+    private String pickKey(ThreadLocalRandom random) {
+        var hot = Math.max(1, (int) (keys * hotKeys));
+        return KEY_PREFIX + (random.nextDouble() < hotTraffic ? random.nextInt(hot) : random.nextInt(keys));
+    }
+
+    private void report() {
+        System.out.printf("%-10s %10s %10s %8s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "ops/s", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (var entry : latencies.entrySet()) {
+            var histogram = entry.getValue();
+            total += histogram.getTotalCount();
+            System.out.printf("%-10s %10d %10.1f %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey(),
+                    histogram.getTotalCount(),
+                    histogram.getTotalCount() / (double) duration,
+                    errors.get(entry.getKey()).sum(),
+                    histogram.getValueAtPercentile(50) / 1000d,
+                    histogram.getValueAtPercentile(90) / 1000d,
+                    histogram.getValueAtPercentile(99) / 1000d,
+                    histogram.getValueAtPercentile(99.9) / 1000d,
+                    histogram.getMaxValue() / 1000d);
+        }
+        System.out.printf("%-10s %10d %10.1f%n", "total", total, total / (double) duration);
+    }
+}
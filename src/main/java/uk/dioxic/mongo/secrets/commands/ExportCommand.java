@@ -0,0 +1,104 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@Command(name = "export", description = "Export the secrets of the active vault to an NDJSON file")
+public class ExportCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "NDJSON file to write, one {\"id\": ..., \"secret\": ...} document per line")
+    private Path file;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = {"--batch-size"}, description = "Number of secrets per cursor batch (default: ${DEFAULT-VALUE})", defaultValue = "" + SecretService.DEFAULT_BATCH_SIZE)
+    private int batchSize;
+
+    @Option(names = {"--progress-interval"}, description = "Seconds between progress reports (default: ${DEFAULT-VALUE})", defaultValue = "5")
+    private int progressInterval;
+
+    @Option(names = {"--force"}, description = "Overwrite the file if it already exists")
+    private boolean force;
+
+    @Override
+    public Integer call() throws Exception {
+        var secretService = new SecretService(uri, blueKey, greenKey);
+        var startTime = System.nanoTime();
+        var lastReport = new long[]{startTime};
+        var exported = new long[]{0};
+        var skipped = new ArrayList<String>();
+
+        if (Files.exists(file) && !force) {
+            System.err.println(file + " already exists - use --force to overwrite it");
+            return 2;
+        }
+        createPrivateFile(file);
+
+        try (var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            var active = secretService.getActive();
+            System.out.println("Exporting secrets from " + active + "...");
+            var count = secretService.export(batchSize, (secretId, secret) -> {
+                try {
+                    writer.write(new Document("id", secretId).append("secret", secret).toJson());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                exported[0]++;
+                var now = System.nanoTime();
+                if (now - lastReport[0] >= TimeUnit.SECONDS.toNanos(progressInterval)) {
+                    lastReport[0] = now;
+                    System.out.printf("%d secrets exported (%.0f/s)%n", exported[0], exported[0] / ((now - startTime) / 1e9));
+                }
+            }, skipped::add);
+            System.out.println(count + " secrets exported from " + active);
+            if (!skipped.isEmpty()) {
+                skipped.forEach(secretId -> System.err.println("Skipped chunked secret " + secretId
+                        + " - use 'msv read " + secretId + " --output <file>' to read it"));
+                System.err.println(skipped.size() + " chunked secrets were not exported");
+                return 1;
+            }
+        } catch (MongoException e) {
+            if (e.getMessage().equals("HMAC validation failure")) {
+                System.err.println("Export failed - are you using the correct key?");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Creates an empty file that only the current user can read, as it will hold plaintext secrets
+     */
+    private static void createPrivateFile(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@Command(name = "import", description = "Import secrets from an NDJSON file into the BLUE & GREEN vaults")
+public class ImportCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "NDJSON file with one {\"id\": ..., \"secret\": ..., \"algorithm\": ...} document per line")
+    private Path file;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = { "--algorithm"}, description = "The encryption algorithm for lines that don't specify one (default: ${DEFAULT-VALUE})", defaultValue = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")
+    private String algorithm;
+
+    @Option(names = {"--batch-size"}, description = "Number of secrets per bulk write (default: ${DEFAULT-VALUE})", defaultValue = "" + SecretService.DEFAULT_BATCH_SIZE)
+    private int batchSize;
+
+    @Option(names = {"--progress-interval"}, description = "Seconds between progress reports (default: ${DEFAULT-VALUE})", defaultValue = "5")
+    private int progressInterval;
+
+    @Override
+    public Integer call() throws Exception {
+        var secretService = new SecretService(uri, blueKey, greenKey);
+        var startTime = System.nanoTime();
+        var lastReport = startTime;
+        long count = 0;
+        long lineNumber = 0;
+
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            System.out.println("Importing secrets to BLUE & GREEN vaults...");
+
+            // secrets are grouped by algorithm as each bulk write uses a single algorithm
+            var batch = new LinkedHashMap<String, Map<String, String>>();
+            int batchCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                var document = Document.parse(line);
+                var secretId = document.getString("id");
+                var secret = document.getString("secret");
+                if (secretId == null || secret == null) {
+                    System.err.println("Line " + lineNumber + " must have an id and a secret");
+                    return 1;
+                }
+                var secretAlgorithm = document.getString("algorithm") != null ? document.getString("algorithm") : algorithm;
+
+                // a secret repeated with another algorithm is written after the batch holding it, so the last line wins
+                if (batch.entrySet().stream().anyMatch(e -> !e.getKey().equals(secretAlgorithm) && e.getValue().containsKey(secretId))) {
+                    count += write(secretService, batch);
+                    batchCount = 0;
+                }
+                batch.computeIfAbsent(secretAlgorithm, k -> new LinkedHashMap<>()).put(secretId, secret);
+
+                if (++batchCount == batchSize) {
+                    count += write(secretService, batch);
+                    batchCount = 0;
+                }
+
+                var now = System.nanoTime();
+                if (now - lastReport >= TimeUnit.SECONDS.toNanos(progressInterval)) {
+                    lastReport = now;
+                    System.out.printf("%d secrets imported (%.0f/s)%n", count, count / ((now - startTime) / 1e9));
+                }
+            }
+            count += write(secretService, batch);
+            System.out.println(count + " secrets imported");
+        } catch (MongoException e) {
+            if (e.getMessage().equals("HMAC validation failure")) {
+                System.err.println("Import failed - are you using the correct keys?");
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private static long write(SecretService secretService, Map<String, Map<String, String>> batch) {
+        long count = 0;
+        for (Map.Entry<String, Map<String, String>> entry : batch.entrySet()) {
+            secretService.writeAll(entry.getValue(), entry.getKey());
+            count += entry.getValue().size();
+        }
+        batch.clear();
+        return count;
+    }
+}
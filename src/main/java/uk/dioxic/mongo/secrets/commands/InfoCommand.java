@@ -2,7 +2,6 @@ package uk.dioxic.mongo.secrets.commands;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
-import uk.dioxic.mongo.secrets.SecretService;
 
 import java.util.concurrent.Callable;
 
@@ -18,11 +17,30 @@ public class InfoCommand implements Callable<Integer> {
     @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
     private String greenKey;
 
+    @Option(names = {"--no-daemon"}, description = "Don't use a running msv daemon")
+    private boolean noDaemon;
+
     @Override
     public Integer call() {
-        var secretService = new SecretService(uri, blueKey, greenKey);
-        var active = secretService.getActive();
-        System.out.println("Active Color: " + active);
+        var secretService = Services.connect(uri, blueKey, greenKey, !noDaemon);
+        var info = secretService.info();
+        System.out.println("Active Color: " + info.active());
+        info.colors().forEach((color, colorInfo) -> System.out.printf(
+                "%s: %d secrets, data %d bytes, storage %d bytes, indexes %d bytes, %d keys%s%n",
+                color,
+                colorInfo.secretCount(),
+                colorInfo.dataSize(),
+                colorInfo.storageSize(),
+                colorInfo.indexSize(),
+                colorInfo.keyCount(),
+                colorInfo.dataKeyPresent() ? "" : " (data key missing)"));
+        System.out.println("Last rotation: " + (info.lastRotation() == null
+                ? "never"
+                : info.lastRotation().toInstant() + " (" + info.lastRotationColor() + ")"));
+        if (info.rotationInProgress()) {
+            System.out.println("Rotation in progress");
+        }
+        System.out.println("In sync: " + (info.inSync() ? "yes" : "no"));
         return 0;
     }
 }
\ No newline at end of file
@@ -4,15 +4,18 @@ import com.mongodb.MongoException;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
-import uk.dioxic.mongo.secrets.SecretService;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
 
 @Command(name = "read", description = "Read a secret")
 public class ReadCommand implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "The ID of the secret to read")
-    private String secretId;
+    @Parameters(arity = "1..*", description = "The ID(s) of the secret(s) to read")
+    private List<String> secretIds;
 
     @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
     private String uri;
@@ -23,12 +26,56 @@ public class ReadCommand implements Callable<Integer> {
     @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
     private String greenKey;
 
+    @Option(names = {"-o", "--output"}, description = "Stream a chunked secret to a file")
+    private Path output;
+
+    @Option(names = {"--no-daemon"}, description = "Don't use a running msv daemon")
+    private boolean noDaemon;
+
     @Override
     public Integer call() throws Exception {
-        var secretService = new SecretService(uri, blueKey, greenKey);
+        if (output != null) {
+            if (secretIds.size() != 1) {
+                System.err.println("--output reads a single secret");
+                return 2;
+            }
+            try (var out = Files.newOutputStream(output)) {
+                var length = Services.local(uri, blueKey, greenKey).readChunked(secretIds.get(0), out);
+                System.out.println(length + " bytes written to " + output);
+            }
+            return 0;
+        }
+
+        var secretService = Services.connect(uri, blueKey, greenKey, !noDaemon);
         try {
-            System.out.println("Reading secret " + secretId + " from " + secretService.getActive() + "...");
-            System.out.println(secretId + "=" + secretService.read(secretId));
+            if (secretIds.size() == 1) {
+                var secretId = secretIds.get(0);
+                System.out.println("Reading secret " + secretId + " from " + secretService.getActive() + "...");
+                System.out.println(secretId + "=" + secretService.read(secretId));
+            } else {
+                System.out.println("Reading " + secretIds.size() + " secrets from " + secretService.getActive() + "...");
+                var secrets = secretService.readMany(secretIds);
+                for (String secretId : secretIds) {
+                    if (secrets.containsKey(secretId)) {
+                        System.out.println(secretId + "=" + secrets.get(secretId));
+                    } else {
+                        System.err.println("No secret found for id: " + secretId);
+                    }
+                }
+                if (!secrets.keySet().containsAll(secretIds)) {
+                    return 1;
+                }
+            }
+        } catch (NoSuchElementException e) {
+            // the daemon reports a missing secret as not found
+            System.err.println("No secret found for id: " + secretIds.get(0));
+            return 1;
+        } catch (IllegalStateException e) {
+            System.err.println("Read failed - " + e.getMessage());
+            if (e.getMessage().contains("chunked")) {
+                System.err.println("Chunked secrets are streamed to a file one at a time with --output <file>");
+            }
+            return 1;
         } catch (MongoException e) {
             if (e.getMessage().equals("HMAC validation failure")) {
                 System.err.println("Read failed - are you using the correct key?");
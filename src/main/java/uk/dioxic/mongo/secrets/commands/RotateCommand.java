@@ -4,9 +4,12 @@ import com.mongodb.MongoException;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
+import uk.dioxic.mongo.secrets.RotationProgress;
 import uk.dioxic.mongo.secrets.SecretService;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Command(name = "rotate", description = "Rotate the master key for the inactive color")
 public class RotateCommand implements Callable<Integer> {
@@ -26,13 +29,28 @@ public class RotateCommand implements Callable<Integer> {
     @Option(names = { "--algorithm"}, description = "The encryption algorithm (default: ${DEFAULT-VALUE})", defaultValue = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")
     private String algorithm;
 
+    @Option(names = {"--batch-size"}, description = "Number of secrets per read/write batch (default: ${DEFAULT-VALUE})", defaultValue = "" + SecretService.DEFAULT_BATCH_SIZE)
+    private int batchSize;
+
+    @Option(names = {"--parallelism"}, description = "Number of re-encryption workers (default: number of processors)")
+    private int parallelism = SecretService.DEFAULT_PARALLELISM;
+
+    @Option(names = {"--restart"}, description = "Discard the checkpoint of an unfinished rotation and start again")
+    private boolean restart;
+
+    @Option(names = {"--progress-interval"}, description = "Seconds between progress reports (default: ${DEFAULT-VALUE})", defaultValue = "5")
+    private int progressInterval;
+
     @Override
     public Integer call() {
-        var secretService = new SecretService(uri, blueKey, greenKey);
+        var secretService = Services.local(uri, blueKey, greenKey);
         try {
             var inactive = secretService.getActive().flip();
+            if (restart) {
+                secretService.clearRotationCheckpoint();
+            }
             System.out.println("Rotating secrets in " + inactive + " vault...");
-            var count = secretService.rotate(SecretService.transformKey(key), algorithm);
+            var count = secretService.rotate(SecretService.transformKey(key), algorithm, batchSize, parallelism, new ProgressReporter());
             System.out.println(count + " secrets rotated for " + inactive);
         } catch (MongoException e) {
             if (e.getMessage().equals("HMAC validation failure")) {
@@ -42,4 +60,26 @@ public class RotateCommand implements Callable<Integer> {
         }
         return 0;
     }
+
+    /**
+     * Prints rotation throughput and ETA at most once per progress interval
+     */
+    private class ProgressReporter implements Consumer<RotationProgress> {
+        private long lastReport = System.nanoTime();
+
+        @Override
+        public void accept(RotationProgress progress) {
+            var now = System.nanoTime();
+            if (now - lastReport < TimeUnit.SECONDS.toNanos(progressInterval)) {
+                return;
+            }
+            lastReport = now;
+            var eta = progress.eta();
+            System.out.printf("%d/%d secrets rotated (%.0f/s, ETA %s)%n",
+                    progress.rotated(),
+                    progress.total(),
+                    progress.rate(),
+                    eta == null ? "unknown" : String.format("%d:%02d:%02d", eta.toHours(), eta.toMinutesPart(), eta.toSecondsPart()));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import picocli.CommandLine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes msv command lines inside a session, optionally pipelining consecutive reads or writes
+ */
+final class ScriptRunner implements AutoCloseable {
+
+    /**
+     * Commands that can be run in a session
+     */
+    static final Set<String> COMMANDS = Set.of("activate", "info", "read", "rotate", "write");
+
+    /**
+     * Commands that are independent of each other and can be pipelined
+     */
+    private static final Set<String> PIPELINED_COMMANDS = Set.of("read", "write");
+
+    private final Class<?> rootCommand;
+    private final int concurrency;
+    private final ExecutorService pipeline;
+    private final Deque<Future<Integer>> pending = new ArrayDeque<>();
+    private String pendingCommand;
+    private int failures;
+
+    /**
+     * @param rootCommand the top level command class, a fresh instance is created for each command line
+     * @param concurrency maximum number of pipelined commands in flight, 1 to run commands one at a time
+     */
+    ScriptRunner(Class<?> rootCommand, int concurrency) {
+        assert concurrency > 0 : "concurrency must be positive";
+        this.rootCommand = rootCommand;
+        this.concurrency = concurrency;
+        this.pipeline = concurrency > 1 ? Executors.newFixedThreadPool(concurrency) : null;
+    }
+
+    /**
+     * Executes a command line. Reads and writes may still be running when this method returns,
+     * runs of reads or writes are completed before a command of another type starts so a read
+     * always sees the writes before it.
+     *
+     * @param line the command line
+     * @return the exit code of the command, 0 if it was pipelined
+     */
+    int execute(String line) {
+        List<String> args;
+        try {
+            args = tokenize(line);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            failures++;
+            return 2;
+        }
+        if (args.isEmpty()) {
+            return 0;
+        }
+        var command = args.get(0);
+        if (!COMMANDS.contains(command)) {
+            System.err.println("Unknown command: " + command + " (commands: " + String.join(", ", COMMANDS.stream().sorted().toList()) + ")");
+            failures++;
+            return 2;
+        }
+
+        if (pipeline != null && PIPELINED_COMMANDS.contains(command)) {
+            if (!command.equals(pendingCommand)) {
+                flush();
+                pendingCommand = command;
+            }
+            if (pending.size() >= concurrency) {
+                complete(pending.removeFirst());
+            }
+            pending.addLast(pipeline.submit(() -> run(args)));
+            return 0;
+        }
+
+        flush();
+        var exitCode = run(args);
+        if (exitCode != 0) {
+            failures++;
+        }
+        return exitCode;
+    }
+
+    /**
+     * Waits for all pipelined commands to complete
+     *
+     * @return the number of commands that have failed so far
+     */
+    int flush() {
+        while (!pending.isEmpty()) {
+            complete(pending.removeFirst());
+        }
+        pendingCommand = null;
+        return failures;
+    }
+
+    /**
+     * @return the number of commands that have failed so far, excluding pipelined commands still running
+     */
+    int failures() {
+        return failures;
+    }
+
+    private void complete(Future<Integer> future) {
+        try {
+            if (future.get() != 0) {
+                failures++;
+            }
+        } catch (ExecutionException e) {
+            failures++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for pipelined commands", e);
+        }
+    }
+
+    private int run(List<String> args) {
+        return new CommandLine(rootCommand).execute(args.toArray(String[]::new));
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * Splits a command line into arguments. Arguments are separated by whitespace and may be quoted
+     * with single quotes (taken literally) or double quotes (where \" and \\ are escaped).
+     * A # at the start of an argument begins a comment.
+     *
+     * @param line the command line
+     * @return the arguments
+     */
+    static List<String> tokenize(String line) {
+        var args = new ArrayList<String>();
+        var arg = new StringBuilder();
+        var inArg = false;
+        char quote = 0;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < line.length() && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else if (c == '#' && !inArg) {
+                break;
+            } else {
+                inArg = true;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+
+        if (quote != 0) {
+            throw new IllegalArgumentException("unterminated " + quote + " in: " + line);
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+}
@@ -0,0 +1,93 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ReadPreference;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import uk.dioxic.mongo.secrets.SecretService;
+import uk.dioxic.mongo.secrets.SecretServiceSettings;
+import uk.dioxic.mongo.secrets.daemon.DaemonDescriptor;
+import uk.dioxic.mongo.secrets.daemon.DaemonServer;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+@Command(name = "serve", description = "Run a daemon that serves read, write and activate for other msv commands")
+public class ServeCommand implements Callable<Integer> {
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = {"--port"}, description = "The loopback port to listen on, 0 for any free port (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private int port;
+
+    @Option(names = {"--threads"}, description = "Number of request handling threads (default: ${DEFAULT-VALUE})", defaultValue = "8")
+    private int threads;
+
+    @Option(names = {"--cache-size"}, description = "Number of decrypted secrets to cache, 0 to disable (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private int cacheSize;
+
+    @Option(names = {"--snapshot"}, description = "Keep an encrypted snapshot of the active secrets in this file to serve reads while MongoDB is unreachable")
+    private Path snapshot;
+
+    @Option(names = {"--snapshot-max-staleness"}, description = "Maximum age in seconds of a snapshot that reads are served from (default: ${DEFAULT-VALUE})", defaultValue = "3600")
+    private int snapshotMaxStaleness;
+
+    @Option(names = {"--read-preference"}, description = "Read preference for secret reads, e.g. nearest or secondaryPreferred (default: the connection string's)")
+    private String readPreference;
+
+    @Option(names = {"--max-staleness"}, description = "Maximum replication lag in seconds of a secondary that secrets are read from, at least 90 (default: no limit)")
+    private Long maxStaleness;
+
+    @Option(names = {"--hedge-delay"}, description = "Milliseconds before a slow secret read is hedged with a second read, 0 to disable (default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private long hedgeDelay;
+
+    @Override
+    public Integer call() throws Exception {
+        var settings = SecretServiceSettings.builder()
+                .secretCacheMaxSize(cacheSize)
+                .snapshotPath(snapshot)
+                .snapshotMaxStaleness(Duration.ofSeconds(snapshotMaxStaleness))
+                .secretReadPreference(readPreference == null ? null : maxStaleness == null
+                        ? ReadPreference.valueOf(readPreference)
+                        : ReadPreference.valueOf(readPreference, List.of(), maxStaleness, TimeUnit.SECONDS))
+                .hedgeDelay(Duration.ofMillis(hedgeDelay))
+                .build();
+        var secretService = new SecretService(uri, blueKey, greenKey, settings);
+        secretService.start();
+        String active;
+        try {
+            secretService.warmUp();
+            active = secretService.getActive().name();
+        } catch (MongoTimeoutException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            active = "unknown - MongoDB unreachable, reading from " + snapshot;
+        }
+        var server = new DaemonServer(secretService, port, threads);
+        var descriptor = new DaemonDescriptor(server.getPort(), server.getToken(), uri, DaemonDescriptor.keyFingerprint(blueKey, greenKey));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            descriptor.delete();
+            server.close();
+            secretService.close();
+        }));
+
+        server.start();
+        descriptor.write();
+        System.out.println("msv daemon listening on 127.0.0.1:" + server.getPort() + " (active: " + active + ")");
+
+        Thread.currentThread().join();
+        return 0;
+    }
+}
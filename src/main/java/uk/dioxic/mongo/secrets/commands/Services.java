@@ -0,0 +1,75 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import uk.dioxic.mongo.secrets.ISecretStore;
+import uk.dioxic.mongo.secrets.SecretService;
+import uk.dioxic.mongo.secrets.daemon.DaemonClient;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Creates the secret service used by commands
+ */
+final class Services {
+
+    /**
+     * Long-lived service shared by the commands of a shell or batch session
+     */
+    private static volatile SecretService session;
+
+    private Services() {
+    }
+
+    /**
+     * Connects to a running msv daemon with matching settings, or creates a local {@link SecretService} if there is none.
+     * Inside a session the session's service is returned and the connection settings are ignored.
+     *
+     * @param uri       MongoDB connection string
+     * @param blueKey   the blue master key
+     * @param greenKey  the green master key
+     * @param useDaemon whether a running daemon may be used
+     * @return a secret store
+     */
+    static ISecretStore connect(String uri, String blueKey, String greenKey, boolean useDaemon) {
+        if (session != null) {
+            return session;
+        }
+        if (useDaemon) {
+            var daemon = DaemonClient.find(uri, blueKey, greenKey);
+            if (daemon.isPresent()) {
+                return daemon.get();
+            }
+        }
+        return new SecretService(uri, blueKey, greenKey);
+    }
+
+    /**
+     * Creates a local {@link SecretService}, or returns the session's service inside a session
+     *
+     * @param uri      MongoDB connection string
+     * @param blueKey  the blue master key
+     * @param greenKey the green master key
+     * @return a secret service
+     */
+    static SecretService local(String uri, String blueKey, String greenKey) {
+        var current = session;
+        return current != null ? current : new SecretService(uri, blueKey, greenKey);
+    }
+
+    /**
+     * Runs commands against a single secret service, which is closed when they complete
+     *
+     * @param secretService the service shared by the session's commands
+     * @param commands      the commands to run
+     * @return the result of the commands
+     */
+    static <T> T inSession(SecretService secretService, Callable<T> commands) throws Exception {
+        assert session == null : "session already open";
+        session = secretService;
+        try {
+            return commands.call();
+        } finally {
+            session = null;
+            secretService.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Spec;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+
+@Command(name = "shell", description = "Run read, write, activate, rotate and info commands interactively on one connection")
+public class ShellCommand implements Callable<Integer> {
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Override
+    public Integer call() throws Exception {
+        var console = System.console();
+        var reader = console == null ? new BufferedReader(new InputStreamReader(System.in)) : null;
+
+        var secretService = new SecretService(uri, blueKey, greenKey);
+        return Services.inSession(secretService, () -> {
+            try (var runner = new ScriptRunner(spec.root().userObject().getClass(), 1)) {
+                System.out.println("Connected, active color is " + secretService.getActive()
+                        + ". Type 'help' for commands, 'exit' to quit.");
+                while (true) {
+                    var line = console != null ? console.readLine("msv> ") : reader.readLine();
+                    if (line == null || line.strip().equals("exit") || line.strip().equals("quit")) {
+                        break;
+                    }
+                    if (line.strip().equals("help")) {
+                        System.out.println("Commands: " + String.join(", ", ScriptRunner.COMMANDS.stream().sorted().toList())
+                                + " - use <command> --help for options. Connection options are taken from the shell.");
+                        continue;
+                    }
+                    runner.execute(line);
+                }
+            }
+            return 0;
+        });
+    }
+}
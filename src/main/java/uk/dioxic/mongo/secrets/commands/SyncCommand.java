@@ -0,0 +1,72 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import com.mongodb.MongoException;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import uk.dioxic.mongo.secrets.SecretService;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Command(name = "sync", description = "Continuously replicate changes from the active color to the inactive color")
+public class SyncCommand implements Callable<Integer> {
+
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = { "--algorithm"}, description = "The encryption algorithm (default: ${DEFAULT-VALUE})", defaultValue = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")
+    private String algorithm;
+
+    @Option(names = {"--restart"}, description = "Discard the saved change stream position and replicate from the current changes")
+    private boolean restart;
+
+    @Option(names = {"--batch-size"}, description = "Maximum number of changes per write batch (default: ${DEFAULT-VALUE})", defaultValue = "" + SecretService.DEFAULT_BATCH_SIZE)
+    private int batchSize;
+
+    @Override
+    public Integer call() {
+        var secretService = new SecretService(uri, blueKey, greenKey);
+        var running = new AtomicBoolean(true);
+        var mainThread = Thread.currentThread();
+
+        // stop replicating on Ctrl-C, giving the current batch a chance to complete
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            running.set(false);
+            try {
+                mainThread.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        try {
+            var active = secretService.getActive();
+            if (restart) {
+                secretService.clearSyncState();
+            }
+            System.out.println("Replicating changes from " + active + " to " + active.flip() + " (Ctrl-C to stop)...");
+            var count = secretService.sync(algorithm, batchSize, running::get);
+            System.out.println(count + " changes replicated to " + active.flip());
+        } catch (MongoException e) {
+            if (e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+                System.err.println("Sync failed - the saved position is no longer in the oplog. Rerun with --restart to "
+                        + "replicate from the current changes, and rotate the inactive vault to pick up the missed ones");
+                return 1;
+            }
+            if (e.getMessage().equals("HMAC validation failure")) {
+                System.err.println("Sync failed - are you using the correct keys?");
+                return 1;
+            }
+            throw e;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,67 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import com.mongodb.MongoException;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import uk.dioxic.mongo.secrets.SecretService;
+import uk.dioxic.mongo.secrets.VerifyResult;
+
+import java.util.concurrent.Callable;
+
+@Command(name = "verify", description = "Check that the inactive vault holds the same secrets as the active vault")
+public class VerifyCommand implements Callable<Integer> {
+
+    @Option(names = {"--uri"}, description = "MongoDB connection string (default: ${DEFAULT-VALUE})", defaultValue = "mongodb://localhost:27017")
+    private String uri;
+
+    @Option(names = {"--blue-key"}, description = "The blue master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordBLUE")
+    private String blueKey;
+
+    @Option(names = {"--green-key"}, description = "The green master key (default: ${DEFAULT-VALUE})", defaultValue = "passwordGREEN")
+    private String greenKey;
+
+    @Option(names = {"--partitions"}, description = "Number of _id ranges to compare (default: sized from the number of secrets)")
+    private int partitions;
+
+    @Option(names = {"--parallelism"}, description = "Number of ranges compared concurrently (default: number of processors)")
+    private int parallelism = SecretService.DEFAULT_PARALLELISM;
+
+    @Option(names = {"--sample"}, description = "Only compare this many randomly chosen secrets")
+    private int sample;
+
+    @Override
+    public Integer call() {
+        var secretService = Services.local(uri, blueKey, greenKey);
+        try {
+            var active = secretService.getActive();
+            System.out.println("Verifying " + active.flip() + " against " + active
+                    + (sample > 0 ? " (sample of " + sample + ")" : "") + "...");
+            var result = sample > 0
+                    ? secretService.verifySample(sample, parallelism)
+                    : secretService.verify(partitions, parallelism);
+
+            System.out.println(result.compared() + " secrets compared");
+            report("missing from " + result.target(), result.missing());
+            if (!result.sampled()) {
+                report("only in " + result.target(), result.extra());
+            }
+            report("different", result.mismatched());
+            System.out.println(result.target() + (result.consistent() ? " matches " : " does not match ") + result.source());
+            return result.consistent() ? 0 : 1;
+        } catch (MongoException e) {
+            if (e.getMessage().equals("HMAC validation failure")) {
+                System.err.println("Verify failed - are you using the correct keys?");
+                return 1;
+            }
+            throw e;
+        }
+    }
+
+    private static void report(String description, VerifyResult.Discrepancy discrepancy) {
+        if (discrepancy.count() == 0) {
+            return;
+        }
+        System.out.println(discrepancy.count() + " secrets " + description + ": " + String.join(", ", discrepancy.ids())
+                + (discrepancy.count() > discrepancy.ids().size() ? ", ..." : ""));
+    }
+}
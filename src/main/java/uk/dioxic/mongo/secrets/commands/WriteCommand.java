@@ -7,14 +7,26 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 import uk.dioxic.mongo.secrets.SecretService;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.Callable;
 
 @Command(name = "write", description = "Write a secret")
 public class WriteCommand implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "The secret contents")
+    @Parameters(index = "0", arity = "0..1", description = "The secret contents")
     private String secret;
 
+    @Option(names = {"--file"}, description = "Write the contents of a file as a chunked secret, for secrets too large for one document")
+    private Path file;
+
+    @Option(names = {"--chunk-size"}, description = "Bytes per chunk when writing a file (default: ${DEFAULT-VALUE})", defaultValue = "" + SecretService.DEFAULT_CHUNK_SIZE)
+    private int chunkSize;
+
+    @Option(names = {"--compress"}, description = "Compress a file before it is encrypted")
+    private boolean compress;
+
     @Option(names = {"--secret-id"}, description = "The ID of the secret to write")
     private String secretId;
 
@@ -30,13 +42,29 @@ public class WriteCommand implements Callable<Integer> {
     @Option(names = { "--algorithm"}, description = "The encryption algorithm (default: ${DEFAULT-VALUE})", defaultValue = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")
     private String algorithm;
 
+    @Option(names = {"--no-daemon"}, description = "Don't use a running msv daemon")
+    private boolean noDaemon;
+
     @Override
-    public Integer call() {
+    public Integer call() throws IOException {
+        if ((secret == null) == (file == null)) {
+            System.err.println("Specify either the secret contents or --file");
+            return 2;
+        }
         if (secretId == null) {
             secretId = ObjectId.get().toHexString();
         }
 
-        var secretService = new SecretService(uri, blueKey, greenKey);
+        if (file != null) {
+            try (var input = Files.newInputStream(file)) {
+                System.out.println("Writing " + file + " to BLUE & GREEN vaults...");
+                var length = Services.local(uri, blueKey, greenKey).writeChunked(secretId, input, chunkSize, compress, algorithm);
+                System.out.println("Secret written (id: " + secretId + ", " + length + " bytes)");
+            }
+            return 0;
+        }
+
+        var secretService = Services.connect(uri, blueKey, greenKey, !noDaemon);
 
         try {
             System.out.println("Writing secret to BLUE & GREEN vaults...");
@@ -0,0 +1,182 @@
+package uk.dioxic.mongo.secrets.daemon;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import uk.dioxic.mongo.secrets.Color;
+import uk.dioxic.mongo.secrets.ISecretStore;
+import uk.dioxic.mongo.secrets.SecretService;
+import uk.dioxic.mongo.secrets.VaultInfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+
+import static uk.dioxic.mongo.secrets.daemon.DaemonServer.BYTES_PATH;
+import static uk.dioxic.mongo.secrets.daemon.DaemonServer.SECRETS_PATH;
+import static uk.dioxic.mongo.secrets.daemon.DaemonServer.TOKEN_HEADER;
+
+/**
+ * A secret service that delegates to a running msv daemon.
+ * <p>
+ * Only reads, writes, activation and info are served by the daemon; other operations must use {@link SecretService}.
+ */
+public class DaemonClient implements ISecretStore {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(250);
+
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final String token;
+
+    public DaemonClient(DaemonDescriptor descriptor) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+        this.baseUri = URI.create("http://127.0.0.1:" + descriptor.port());
+        this.token = descriptor.token();
+    }
+
+    /**
+     * Finds a running daemon started with the given settings
+     *
+     * @param uri      MongoDB connection string
+     * @param blueKey  the blue master key
+     * @param greenKey the green master key
+     * @return a client for the daemon, or empty if no matching daemon is reachable
+     */
+    public static Optional<DaemonClient> find(String uri, String blueKey, String greenKey) {
+        return DaemonDescriptor.read()
+                .filter(descriptor -> descriptor.matches(uri, blueKey, greenKey))
+                .map(DaemonClient::new)
+                .filter(DaemonClient::ping);
+    }
+
+    /**
+     * Checks that the daemon is reachable
+     *
+     * @return true if the daemon responded
+     */
+    public boolean ping() {
+        try {
+            return send(request("/ping").GET()).equals("pong");
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void write(String secretId, String secret) {
+        write(secretId, secret, SecretService.DEFAULT_ALGORITHM);
+    }
+
+    @Override
+    public void write(String secretId, String secret, String algorithm) {
+        send(request(SECRETS_PATH + "/" + encode(secretId) + "?algorithm=" + encode(algorithm))
+                .PUT(HttpRequest.BodyPublishers.ofString(secret, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void writeAll(Map<String, String> secrets, String algorithm) {
+        var body = new Document("algorithm", algorithm)
+                .append("secrets", new Document(new LinkedHashMap<>(secrets)))
+                .toJson();
+        send(request(SECRETS_PATH).PUT(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void writeBytes(String secretId, ByteBuffer secret, String algorithm) {
+        var data = new byte[secret.remaining()];
+        secret.duplicate().get(data);
+        try {
+            send(request(BYTES_PATH + "/" + encode(secretId) + "?algorithm=" + encode(algorithm))
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(data)));
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    @Override
+    public String read(String secretId) {
+        return send(request(SECRETS_PATH + "/" + encode(secretId)).GET());
+    }
+
+    @Override
+    public byte[] readBytes(String secretId) {
+        try {
+            var response = httpClient.send(request(BYTES_PATH + "/" + encode(secretId)).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            return switch (response.statusCode()) {
+                case 200 -> response.body();
+                case 404 -> null;
+                case 409 -> throw new IllegalStateException(new String(response.body(), StandardCharsets.UTF_8));
+                case 500 -> throw new MongoException(new String(response.body(), StandardCharsets.UTF_8));
+                default -> throw new IllegalStateException("msv daemon returned " + response.statusCode());
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for msv daemon", e);
+        }
+    }
+
+    @Override
+    public Map<String, String> readMany(Collection<String> secretIds) {
+        var body = new Document("ids", new ArrayList<>(secretIds)).toJson();
+        var response = Document.parse(send(request(SECRETS_PATH).POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))));
+        var secrets = new HashMap<String, String>();
+        response.forEach((id, secret) -> secrets.put(id, (String) secret));
+        return secrets;
+    }
+
+    @Override
+    public void activate(Color color) {
+        send(request("/active").PUT(HttpRequest.BodyPublishers.ofString(color.name())));
+    }
+
+    @Override
+    public Color getActive() {
+        return Color.valueOf(send(request("/active").GET()));
+    }
+
+    @Override
+    public VaultInfo info() {
+        return VaultInfo.fromDocument(Document.parse(send(request("/info").GET())));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .header(TOKEN_HEADER, token);
+    }
+
+    private String send(HttpRequest.Builder request) {
+        try {
+            var response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            return switch (response.statusCode()) {
+                case 200, 204 -> response.body();
+                case 404 -> throw new NoSuchElementException(response.body());
+                case 409 -> throw new IllegalStateException(response.body());
+                case 500 -> throw new MongoException(response.body());
+                default -> throw new IllegalStateException("msv daemon returned " + response.statusCode() + ": " + response.body());
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for msv daemon", e);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package uk.dioxic.mongo.secrets.daemon;
+
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+
+import static uk.dioxic.mongo.secrets.SecretService.transformKey;
+
+/**
+ * Describes how to reach a running msv daemon.
+ * <p>
+ * The descriptor is written to {@code ~/.msv/daemon.json} (readable only by the owner) when the daemon starts
+ * and removed when it stops. It holds the loopback port, the access token clients must present, the MongoDB
+ * connection string and a fingerprint of the master keys so clients only use a daemon with matching settings.
+ */
+public record DaemonDescriptor(int port, String token, String uri, String keyFingerprint) {
+
+    private static final Path PATH = Path.of(System.getProperty("user.home"), ".msv", "daemon.json");
+
+    /**
+     * Reads the descriptor of the running daemon
+     *
+     * @return the descriptor, or empty if no daemon is running
+     */
+    public static Optional<DaemonDescriptor> read() {
+        if (!Files.isRegularFile(PATH)) {
+            return Optional.empty();
+        }
+        try {
+            var document = Document.parse(Files.readString(PATH));
+            return Optional.of(new DaemonDescriptor(
+                    document.getInteger("port"),
+                    document.getString("token"),
+                    document.getString("uri"),
+                    document.getString("keyFingerprint")
+            ));
+        } catch (IOException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes this descriptor so that clients can find the daemon
+     */
+    public void write() {
+        var json = new Document("port", port)
+                .append("token", token)
+                .append("uri", uri)
+                .append("keyFingerprint", keyFingerprint)
+                .toJson();
+        try {
+            Files.createDirectories(PATH.getParent());
+            Files.deleteIfExists(PATH);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(PATH, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            }
+            Files.writeString(PATH, json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes this descriptor if it is still the current one
+     */
+    public void delete() {
+        if (read().filter(this::equals).isPresent()) {
+            try {
+                Files.deleteIfExists(PATH);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a client with the given settings may use the daemon
+     *
+     * @param uri      MongoDB connection string
+     * @param blueKey  the blue master key
+     * @param greenKey the green master key
+     * @return true if the daemon was started with the same settings
+     */
+    public boolean matches(String uri, String blueKey, String greenKey) {
+        return Objects.equals(this.uri, uri) && Objects.equals(keyFingerprint, keyFingerprint(blueKey, greenKey));
+    }
+
+    /**
+     * Generates a random access token
+     *
+     * @return hex encoded token
+     */
+    public static String generateToken() {
+        byte[] token = new byte[32];
+        new SecureRandom().nextBytes(token);
+        return HexFormat.of().formatHex(token);
+    }
+
+    /**
+     * Creates a fingerprint of the master keys that does not reveal them
+     *
+     * @param blueKey  the blue master key
+     * @param greenKey the green master key
+     * @return hex encoded SHA-256 digest of the transformed keys
+     */
+    public static String keyFingerprint(String blueKey, String greenKey) {
+        try {
+            var md = MessageDigest.getInstance("SHA-256");
+            md.update("msv-daemon".getBytes(StandardCharsets.UTF_8));
+            md.update(transformKey(blueKey));
+            md.update(transformKey(greenKey));
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
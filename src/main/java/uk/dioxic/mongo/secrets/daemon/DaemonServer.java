@@ -0,0 +1,187 @@
+package uk.dioxic.mongo.secrets.daemon;
+
+import com.mongodb.MongoException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import uk.dioxic.mongo.secrets.Color;
+import uk.dioxic.mongo.secrets.ISecretStore;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a long-lived secret service over loopback HTTP.
+ * <p>
+ * Every request must carry the access token in the {@value #TOKEN_HEADER} header.
+ * <ul>
+ *     <li>{@code GET /ping} - liveness check</li>
+ *     <li>{@code GET /info} - vault statistics</li>
+ *     <li>{@code GET /active} - the active Color</li>
+ *     <li>{@code PUT /active} - activate the Color in the body</li>
+ *     <li>{@code GET /secrets/{id}} - read a secret</li>
+ *     <li>{@code PUT /secrets/{id}?algorithm=} - write the secret in the body</li>
+ *     <li>{@code POST /secrets} - read the secrets listed in a {@code {"ids": [...]}} body</li>
+ *     <li>{@code PUT /secrets} - write the secrets in a {@code {"algorithm": ..., "secrets": {...}}} body</li>
+ *     <li>{@code GET /bytes/{id}} - read a secret as bytes</li>
+ *     <li>{@code PUT /bytes/{id}?algorithm=} - write the bytes in the body as a secret</li>
+ * </ul>
+ * Missing secrets are returned as a 404 status, requests that don't apply to a secret (such as reading a chunked
+ * secret) as a 409 and driver and other server errors as a 500, with the error message as the body.
+ */
+public class DaemonServer implements AutoCloseable {
+
+    static final String TOKEN_HEADER = "X-Msv-Token";
+    static final String SECRETS_PATH = "/secrets";
+    static final String BYTES_PATH = "/bytes";
+
+    private final ISecretStore secretService;
+    private final String token;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public DaemonServer(ISecretStore secretService, int port, int threads) throws IOException {
+        this.secretService = secretService;
+        this.token = DaemonDescriptor.generateToken();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!token.equals(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                send(exchange, 401, "Unauthorized");
+                return;
+            }
+
+            var method = exchange.getRequestMethod();
+            var path = exchange.getRequestURI().getRawPath();
+
+            if (path.equals("/ping")) {
+                send(exchange, 200, "pong");
+            } else if (path.equals("/info") && method.equals("GET")) {
+                send(exchange, 200, secretService.info().toDocument().toJson());
+            } else if (path.equals("/active") && method.equals("GET")) {
+                send(exchange, 200, secretService.getActive().name());
+            } else if (path.equals("/active") && method.equals("PUT")) {
+                secretService.activate(Color.valueOf(readBody(exchange).trim()));
+                send(exchange, 204, "");
+            } else if (path.equals(SECRETS_PATH) && method.equals("POST")) {
+                var ids = Document.parse(readBody(exchange)).getList("ids", String.class);
+                send(exchange, 200, new Document(new LinkedHashMap<>(secretService.readMany(ids))).toJson());
+            } else if (path.equals(SECRETS_PATH) && method.equals("PUT")) {
+                var request = Document.parse(readBody(exchange));
+                var secrets = new LinkedHashMap<String, String>();
+                request.get("secrets", Document.class).forEach((id, secret) -> secrets.put(id, (String) secret));
+                secretService.writeAll(secrets, request.getString("algorithm"));
+                send(exchange, 204, "");
+            } else if (path.startsWith(SECRETS_PATH + "/") && method.equals("GET")) {
+                // the UTF-8 bytes of a secret are its string body
+                sendSecret(exchange, decode(path.substring(SECRETS_PATH.length() + 1)));
+            } else if (path.startsWith(SECRETS_PATH + "/") && method.equals("PUT")) {
+                var secretId = decode(path.substring(SECRETS_PATH.length() + 1));
+                secretService.write(secretId, readBody(exchange), getAlgorithm(exchange));
+                send(exchange, 204, "");
+            } else if (path.startsWith(BYTES_PATH + "/") && method.equals("GET")) {
+                sendSecret(exchange, decode(path.substring(BYTES_PATH.length() + 1)));
+            } else if (path.startsWith(BYTES_PATH + "/") && method.equals("PUT")) {
+                var secretId = decode(path.substring(BYTES_PATH.length() + 1));
+                var secret = exchange.getRequestBody().readAllBytes();
+                try {
+                    secretService.writeBytes(secretId, ByteBuffer.wrap(secret), getAlgorithm(exchange));
+                } finally {
+                    Arrays.fill(secret, (byte) 0);
+                }
+                send(exchange, 204, "");
+            } else {
+                send(exchange, 404, "Unknown request " + method + " " + path);
+            }
+        } catch (MongoException e) {
+            send(exchange, 500, e.getMessage());
+        } catch (NoSuchElementException e) {
+            send(exchange, 404, String.valueOf(e.getMessage()));
+        } catch (IllegalArgumentException | ClassCastException e) {
+            send(exchange, 400, String.valueOf(e.getMessage()));
+        } catch (IllegalStateException e) {
+            send(exchange, 409, String.valueOf(e.getMessage()));
+        } catch (RuntimeException | AssertionError e) {
+            // e.g. no active color - the client must get a status rather than a dropped connection
+            send(exchange, 500, String.valueOf(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String getAlgorithm(HttpExchange exchange) {
+        var query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("algorithm=")) {
+                    return decode(param.substring("algorithm=".length()));
+                }
+            }
+        }
+        throw new IllegalArgumentException("algorithm not specified");
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private void sendSecret(HttpExchange exchange, String secretId) throws IOException {
+        var secret = secretService.readBytes(secretId);
+        if (secret == null) {
+            send(exchange, 404, "No secret found for id: " + secretId);
+        } else {
+            try {
+                send(exchange, 200, secret);
+            } finally {
+                Arrays.fill(secret, (byte) 0);
+            }
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+}
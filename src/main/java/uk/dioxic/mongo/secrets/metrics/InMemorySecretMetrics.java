@@ -0,0 +1,129 @@
+package uk.dioxic.mongo.secrets.metrics;
+
+import uk.dioxic.mongo.secrets.Color;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps per-operation counts, error counts, bytes and latency histograms in memory.
+ * <p>
+ * Latencies are held in power-of-two nanosecond buckets, so percentiles are accurate to within a factor of two.
+ */
+public class InMemorySecretMetrics implements SecretMetrics {
+
+    static final String HMAC_VALIDATION_FAILURE = "HMAC validation failure";
+
+    private final Map<Operation, OperationMetrics> metrics = new EnumMap<>(Operation.class);
+
+    public InMemorySecretMetrics() {
+        for (Operation operation : Operation.values()) {
+            metrics.put(operation, new OperationMetrics());
+        }
+    }
+
+    @Override
+    public void record(Operation operation, Color color, long durationNanos, long items, long bytes, Throwable error) {
+        var m = metrics.get(operation);
+        m.count.increment();
+        m.items.add(items);
+        m.bytes.add(bytes);
+        m.totalNanos.add(durationNanos);
+        m.latency.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, durationNanos)));
+        if (error != null) {
+            m.errors.increment();
+            if (HMAC_VALIDATION_FAILURE.equals(error.getMessage())) {
+                m.hmacFailures.increment();
+            }
+        }
+    }
+
+    public long getCount(Operation operation) {
+        return metrics.get(operation).count.sum();
+    }
+
+    public long getItems(Operation operation) {
+        return metrics.get(operation).items.sum();
+    }
+
+    public long getErrorCount(Operation operation) {
+        return metrics.get(operation).errors.sum();
+    }
+
+    public long getHmacFailureCount(Operation operation) {
+        return metrics.get(operation).hmacFailures.sum();
+    }
+
+    public long getBytes(Operation operation) {
+        return metrics.get(operation).bytes.sum();
+    }
+
+    /**
+     * Gets the approximate latency percentile of an operation
+     *
+     * @param operation  the operation
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the histogram bucket holding the percentile in nanoseconds, or 0 if there are no samples
+     */
+    public long getLatencyPercentile(Operation operation, double percentile) {
+        var latency = metrics.get(operation).latency;
+        long total = 0;
+        for (int i = 0; i < latency.length(); i++) {
+            total += latency.get(i);
+        }
+        var threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < latency.length(); i++) {
+            seen += latency.get(i);
+            if (seen >= threshold && seen > 0) {
+                return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the mean throughput of an operation while it was running
+     *
+     * @param operation the operation
+     * @return secrets processed per second of operation time
+     */
+    public double getThroughput(Operation operation) {
+        var m = metrics.get(operation);
+        var seconds = m.totalNanos.sum() / 1_000_000_000d;
+        return seconds > 0 ? m.items.sum() / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+        var sb = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            if (getCount(operation) == 0) {
+                continue;
+            }
+            sb.append(String.format("%-12s count=%d items=%d errors=%d hmacFailures=%d bytes=%d p50=%.3fms p99=%.3fms p99.9=%.3fms%n",
+                    operation,
+                    getCount(operation),
+                    getItems(operation),
+                    getErrorCount(operation),
+                    getHmacFailureCount(operation),
+                    getBytes(operation),
+                    getLatencyPercentile(operation, 50) / 1e6,
+                    getLatencyPercentile(operation, 99) / 1e6,
+                    getLatencyPercentile(operation, 99.9) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private static class OperationMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder hmacFailures = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLongArray latency = new AtomicLongArray(64);
+    }
+}
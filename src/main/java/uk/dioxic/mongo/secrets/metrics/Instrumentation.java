@@ -0,0 +1,106 @@
+package uk.dioxic.mongo.secrets.metrics;
+
+import jdk.jfr.EventType;
+import uk.dioxic.mongo.secrets.Color;
+
+/**
+ * Times operations and reports them to a {@link SecretMetrics} facade and as JFR events.
+ * <p>
+ * When no metrics are configured and the JFR event is disabled, {@link #start} returns a shared sample that does nothing
+ * and nothing is allocated.
+ */
+public class Instrumentation {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(SecretOperationEvent.class);
+
+    private final SecretMetrics metrics;
+
+    public Instrumentation(SecretMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @param operation the operation
+     * @param color     the color the operation applies to, may be null
+     * @return a sample that must be stopped when the operation completes
+     */
+    public Sample start(Operation operation, Color color) {
+        // the event type knows whether any recording has the event enabled without creating an event
+        var eventEnabled = EVENT_TYPE.isEnabled();
+        if (metrics == SecretMetrics.NOOP && !eventEnabled) {
+            return Sample.NOOP;
+        }
+        return new Sample(metrics, operation, color, eventEnabled ? new SecretOperationEvent() : null);
+    }
+
+    public static class Sample {
+
+        private static final Sample NOOP = new Sample(null, null, null, null);
+
+        private final SecretMetrics metrics;
+        private final Operation operation;
+        private final Color color;
+        private final SecretOperationEvent event;
+        private final long startNanos;
+        private long items = 1;
+        private long bytes;
+        private Throwable error;
+
+        private Sample(SecretMetrics metrics, Operation operation, Color color, SecretOperationEvent event) {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.color = color;
+            this.event = event;
+            this.startNanos = metrics != null ? System.nanoTime() : 0;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /**
+         * Sets the number of secrets processed, defaults to 1
+         */
+        public void items(long items) {
+            this.items = items;
+        }
+
+        /**
+         * Sets the number of ciphertext bytes processed
+         */
+        public void bytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Marks the operation as failed
+         */
+        public void error(Throwable error) {
+            this.error = error;
+        }
+
+        /**
+         * Stops timing and records the operation
+         */
+        public void stop() {
+            if (metrics == null) {
+                return;
+            }
+            metrics.record(operation, color, System.nanoTime() - startNanos, items, bytes, error);
+            if (event == null) {
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.name();
+                event.color = color != null ? color.name() : null;
+                event.items = items;
+                event.bytes = bytes;
+                event.success = error == null;
+                event.error = error != null ? error.getMessage() : null;
+                event.commit();
+            }
+        }
+    }
+}
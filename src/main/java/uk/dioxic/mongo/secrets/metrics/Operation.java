@@ -0,0 +1,13 @@
+package uk.dioxic.mongo.secrets.metrics;
+
+/**
+ * The instrumented SecretService operations
+ */
+public enum Operation {
+    GET_ACTIVE,
+    FIND,
+    ENCRYPT,
+    DECRYPT,
+    WRITE,
+    ROTATE_BATCH
+}
@@ -0,0 +1,29 @@
+package uk.dioxic.mongo.secrets.metrics;
+
+import uk.dioxic.mongo.secrets.Color;
+
+/**
+ * A facade for recording SecretService metrics.
+ * <p>
+ * Implementations can bridge to a metrics library; {@link InMemorySecretMetrics} is provided for simple cases.
+ */
+public interface SecretMetrics {
+
+    /**
+     * Records nothing
+     */
+    SecretMetrics NOOP = (operation, color, durationNanos, items, bytes, error) -> {
+    };
+
+    /**
+     * Records a completed operation
+     *
+     * @param operation     the operation
+     * @param color         the color the operation applied to, may be null
+     * @param durationNanos the time taken
+     * @param items         the number of secrets processed
+     * @param bytes         the number of ciphertext bytes encrypted or decrypted
+     * @param error         the error the operation failed with, or null if it succeeded
+     */
+    void record(Operation operation, Color color, long durationNanos, long items, long bytes, Throwable error);
+}
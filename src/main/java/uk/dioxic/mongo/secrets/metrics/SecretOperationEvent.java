@@ -0,0 +1,37 @@
+package uk.dioxic.mongo.secrets.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event emitted for each instrumented SecretService operation
+ */
+@Name("uk.dioxic.mongo.secrets.SecretOperation")
+@Label("Secret Operation")
+@Category({"MongoDB", "Secrets"})
+@Description("A SecretService operation such as a find, encrypt, decrypt or rotation batch")
+class SecretOperationEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Color")
+    String color;
+
+    @Label("Items")
+    @Description("Number of secrets processed")
+    long items;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,96 @@
+package uk.dioxic.mongo.secrets;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SecretCacheTest {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+    private static final Duration SHORT_TTL = Duration.ofMillis(50);
+
+    @Test
+    void getReturnsCopy() {
+        var cache = new SecretCache(10, TTL);
+        cache.put(Color.BLUE, "secret1", bytes("mySecret"));
+
+        var first = cache.get(Color.BLUE, "secret1");
+        first[0] = 0;
+
+        assertThat(cache.get(Color.BLUE, "secret1")).containsExactly(bytes("mySecret"));
+        assertThat(cache.get(Color.GREEN, "secret1")).isNull();
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvictedAndWiped() {
+        var cache = new SecretCache(2, TTL);
+        var secret1 = bytes("secret1");
+        var secret2 = bytes("secret2");
+        cache.put(Color.BLUE, "secret1", secret1);
+        cache.put(Color.BLUE, "secret2", secret2);
+        cache.get(Color.BLUE, "secret1");
+
+        cache.put(Color.BLUE, "secret3", bytes("secret3"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(secret2).containsOnly(0);
+        assertThat(cache.get(Color.BLUE, "secret2")).isNull();
+        assertThat(cache.get(Color.BLUE, "secret1")).containsExactly(bytes("secret1"));
+    }
+
+    @Test
+    void expiredSecretIsWipedOnGet() throws InterruptedException {
+        var cache = new SecretCache(10, SHORT_TTL);
+        var secret = bytes("mySecret");
+        cache.put(Color.BLUE, "secret1", secret);
+
+        Thread.sleep(SHORT_TTL.toMillis() * 2);
+
+        assertThat(cache.get(Color.BLUE, "secret1")).isNull();
+        assertThat(secret).containsOnly(0);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void expiredSecretsAreSweptOnPut() throws InterruptedException {
+        var cache = new SecretCache(10, SHORT_TTL);
+        var secret = bytes("mySecret");
+        cache.put(Color.BLUE, "secret1", secret);
+
+        Thread.sleep(SHORT_TTL.toMillis() * 2);
+        cache.put(Color.BLUE, "secret2", bytes("myOtherSecret"));
+
+        assertThat(secret).containsOnly(0);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void replacedAndInvalidatedSecretsAreWiped() {
+        var cache = new SecretCache(10, TTL);
+        var original = bytes("original");
+        var blue = bytes("blue");
+        var green = bytes("green");
+        cache.put(Color.BLUE, "secret1", original);
+        cache.put(Color.BLUE, "secret1", blue);
+        cache.put(Color.GREEN, "secret1", green);
+
+        assertThat(original).containsOnly(0);
+
+        cache.invalidate("secret1");
+
+        assertThat(blue).containsOnly(0);
+        assertThat(green).containsOnly(0);
+        assertThat(cache.size()).isZero();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
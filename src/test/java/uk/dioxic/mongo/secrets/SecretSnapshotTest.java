@@ -0,0 +1,129 @@
+package uk.dioxic.mongo.secrets;
+
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SecretSnapshotTest {
+
+    private static final Duration MAX_STALENESS = Duration.ofMinutes(1);
+    private static final BsonDocument KEY_DOCUMENT = new BsonDocument("keyAltNames", new BsonString("dataKey"));
+    private static final BsonDocument RESUME_TOKEN = new BsonDocument("_data", new BsonString("8264A1B2C3"));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void missingFileIsEmpty() {
+        try (var snapshot = SecretSnapshot.open(dir.resolve("secrets.snapshot"))) {
+            assertThat(snapshot.isUsable(MAX_STALENESS)).isFalse();
+            assertThat(snapshot.getColor()).isNull();
+            assertThat(snapshot.getResumeToken()).isNull();
+            assertThat(snapshot.find("secret1")).isNull();
+            assertThat(snapshot.readAll()).isEmpty();
+        }
+    }
+
+    @Test
+    void unreadableFileIsEmpty() throws IOException {
+        var path = dir.resolve("secrets.snapshot");
+        Files.writeString(path, "not a snapshot");
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            assertThat(snapshot.isUsable(MAX_STALENESS)).isFalse();
+            assertThat(snapshot.find("secret1")).isNull();
+        }
+    }
+
+    @Test
+    void writtenSnapshotIsMappedAndLookedUp() {
+        var path = dir.resolve("secrets.snapshot");
+        var entries = entries(500);
+        // ids are sorted as unsigned UTF-8 bytes, so multibyte ids sort after ASCII ones
+        entries.put("s\u00e9cret", bytes("accented"));
+        entries.put("", bytes("empty"));
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            snapshot.write(Color.GREEN, RESUME_TOKEN, KEY_DOCUMENT, entries);
+        }
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            assertThat(snapshot.isUsable(MAX_STALENESS)).isTrue();
+            assertThat(snapshot.isUsable(Duration.ofMillis(-1))).isFalse();
+            assertThat(snapshot.getColor()).isEqualTo(Color.GREEN);
+            assertThat(snapshot.getResumeToken()).isEqualTo(RESUME_TOKEN);
+
+            entries.forEach((secretId, cipherText) -> {
+                var found = snapshot.find(secretId);
+                assertThat(found.getType()).isEqualTo(BsonBinarySubType.ENCRYPTED.getValue());
+                assertThat(found.getData()).containsExactly(cipherText);
+            });
+            assertThat(snapshot.find("secret")).isNull();
+            assertThat(snapshot.find("secret9999")).isNull();
+            assertThat(snapshot.find("zzz")).isNull();
+
+            var all = snapshot.readAll();
+            assertThat(all.keySet()).isEqualTo(entries.keySet());
+            entries.forEach((secretId, cipherText) -> assertThat(all.get(secretId)).containsExactly(cipherText));
+        }
+    }
+
+    @Test
+    void writeReplacesSnapshot() {
+        var path = dir.resolve("secrets.snapshot");
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            snapshot.write(Color.BLUE, RESUME_TOKEN, KEY_DOCUMENT, entries(10));
+            snapshot.write(Color.GREEN, null, KEY_DOCUMENT, Map.of("other", bytes("other")));
+
+            assertThat(snapshot.getColor()).isEqualTo(Color.GREEN);
+            assertThat(snapshot.getResumeToken()).isNull();
+            assertThat(snapshot.find("secret1")).isNull();
+            assertThat(snapshot.find("other").getData()).containsExactly(bytes("other"));
+        }
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            assertThat(snapshot.readAll().keySet()).isEqualTo(Set.of("other"));
+        }
+    }
+
+    @Test
+    void emptySnapshotIsUsable() {
+        var path = dir.resolve("secrets.snapshot");
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            snapshot.write(Color.BLUE, null, KEY_DOCUMENT, Map.of());
+        }
+
+        try (var snapshot = SecretSnapshot.open(path)) {
+            assertThat(snapshot.isUsable(MAX_STALENESS)).isTrue();
+            assertThat(snapshot.find("secret1")).isNull();
+            assertThat(snapshot.readAll()).isEmpty();
+        }
+    }
+
+    private static Map<String, byte[]> entries(int count) {
+        var entries = new HashMap<String, byte[]>();
+        for (int i = 0; i < count; i++) {
+            entries.put("secret" + i, bytes("cipherText" + i));
+        }
+        return entries;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package uk.dioxic.mongo.secrets.commands;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.dioxic.mongo.secrets.commands.ScriptRunner.tokenize;
+
+class ScriptRunnerTest {
+
+    @Test
+    void splitsOnWhitespace() {
+        assertThat(tokenize("  read\tsecret1   secret2 ")).containsExactly("read", "secret1", "secret2");
+        assertThat(tokenize("")).isEmpty();
+        assertThat(tokenize("   ")).isEmpty();
+    }
+
+    @Test
+    void singleQuotesAreLiteral() {
+        assertThat(tokenize("write 'my secret' '\\n\"x\"'")).containsExactly("write", "my secret", "\\n\"x\"");
+    }
+
+    @Test
+    void doubleQuotesEscapeQuotesAndBackslashes() {
+        assertThat(tokenize("write \"say \\\"hi\\\" \\\\ \\n\"")).containsExactly("write", "say \"hi\" \\ \\n");
+    }
+
+    @Test
+    void quotedAndUnquotedPartsJoin() {
+        assertThat(tokenize("write --secret-id=a'b c'\"d e\"")).containsExactly("write", "--secret-id=ab cd e");
+    }
+
+    @Test
+    void emptyQuotesAreAnArgument() {
+        assertThat(tokenize("write '' \"\"")).containsExactly("write", "", "");
+    }
+
+    @Test
+    void backslashEscapesOutsideQuotes() {
+        assertThat(tokenize("write my\\ secret \\'x")).containsExactly("write", "my secret", "'x");
+        assertThat(tokenize("write x\\")).containsExactly("write", "x\\");
+    }
+
+    @Test
+    void hashStartsCommentOnlyAtStartOfArgument() {
+        assertThat(tokenize("# rotate BLUE")).isEmpty();
+        assertThat(tokenize("read secret1 # the first secret")).containsExactly("read", "secret1");
+        assertThat(tokenize("write a#b '# quoted'")).containsExactly("write", "a#b", "# quoted");
+    }
+
+    @Test
+    void unterminatedQuoteIsRejected() {
+        assertThatThrownBy(() -> tokenize("write 'my secret"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unterminated '");
+        assertThatThrownBy(() -> tokenize("write \"my secret\\\""))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("unterminated \"");
+    }
+}